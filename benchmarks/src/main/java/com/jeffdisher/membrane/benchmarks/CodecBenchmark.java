@@ -0,0 +1,96 @@
+package com.jeffdisher.membrane.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jeffdisher.membrane.store.codecs.IntegerCodec;
+import com.jeffdisher.membrane.store.codecs.StringCodec;
+
+
+/**
+ * Measures the array forms of the StringCodec and IntegerCodec, and decoding them from direct buffers (as off-heap storage
+ * does).
+ * The strings are ASCII with one 2-byte and one 3-byte character so both the fast and multi-byte paths are exercised.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+	private static final StringCodec STRING_CODEC = new StringCodec();
+	private static final IntegerCodec INTEGER_CODEC = new IntegerCodec();
+
+	@Param({"16", "1024"})
+	public int stringLength;
+
+	private String _string;
+	private byte[] _stringBytes;
+	private ByteBuffer _stringBuffer;
+	private Integer _integer;
+	private byte[] _integerBytes;
+	private ByteBuffer _integerBuffer;
+
+	@Setup
+	public void setup() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("\u00e9\u20ac");
+		while (builder.length() < stringLength) {
+			builder.append((char)('a' + (builder.length() % 26)));
+		}
+		_string = builder.toString();
+		_stringBytes = STRING_CODEC.serialize(_string);
+		_stringBuffer = ByteBuffer.allocateDirect(_stringBytes.length);
+		// The decode benchmarks re-read what is written here.
+		_stringBuffer.put(_stringBytes);
+		_integer = Integer.valueOf(123_456_789);
+		_integerBytes = INTEGER_CODEC.serialize(_integer);
+		_integerBuffer = ByteBuffer.allocateDirect(_integerBytes.length);
+		_integerBuffer.put(_integerBytes);
+	}
+
+	@Benchmark
+	public byte[] stringSerialize() {
+		return STRING_CODEC.serialize(_string);
+	}
+
+	@Benchmark
+	public String stringDeserialize() {
+		return STRING_CODEC.deserialize(_stringBytes);
+	}
+
+	@Benchmark
+	public String stringDecode() {
+		_stringBuffer.clear();
+		return STRING_CODEC.decode(_stringBuffer);
+	}
+
+	@Benchmark
+	public byte[] integerSerialize() {
+		return INTEGER_CODEC.serialize(_integer);
+	}
+
+	@Benchmark
+	public Integer integerDeserialize() {
+		return INTEGER_CODEC.deserialize(_integerBytes);
+	}
+
+	@Benchmark
+	public Integer integerDecode() {
+		_integerBuffer.clear();
+		return INTEGER_CODEC.decode(_integerBuffer);
+	}
+}
@@ -0,0 +1,166 @@
+package com.jeffdisher.membrane.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jeffdisher.laminar.types.TopicName;
+import com.jeffdisher.laminar.utils.Assert;
+import com.jeffdisher.membrane.store.IListenerTopicShim;
+import com.jeffdisher.membrane.store.KeyChange;
+import com.jeffdisher.membrane.store.StoreOptions;
+import com.jeffdisher.membrane.store.SynchronousStore;
+import com.jeffdisher.membrane.store.codecs.ICodec;
+import com.jeffdisher.membrane.store.codecs.StringCodec;
+import com.jeffdisher.membrane.store.connection.IConnectionFactory;
+import com.jeffdisher.membrane.store.connection.IReadingConnection;
+import com.jeffdisher.membrane.store.connection.IWritingConnection;
+import com.jeffdisher.membrane.store.local.LocalFactory;
+
+
+/**
+ * Measures how quickly a topic's listener can apply puts, for each kind of storage.
+ * The store's listener shim is driven directly (decoding the raw keys and values first), so this measures the listener's
+ * side without a Laminar cluster.  applyBatch passes runs of puts to applyBatch(), the way TopicListener does, while
+ * applyPut makes the individual put() and checkpoint() calls, to show what batching saves.  Note that applyBatch's
+ * score is in batches so it must be multiplied by batchSize to compare it with applyPut.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListenerBenchmark {
+	private static final StringCodec CODEC = new StringCodec();
+
+	@Param({"heap", "lazy", "offHeap"})
+	public String storage;
+
+	// This must be a power of 2 since we mask the offset to pick a key.
+	@Param({"1024", "65536"})
+	public int keyCount;
+
+	private SynchronousStore _store;
+	private Driver<?, ?> _driver;
+	private byte[][] _keys;
+	private byte[] _value;
+	private long _offset;
+
+	@Setup
+	public void setup() throws IOException {
+		StoreOptions options = new StoreOptions();
+		options.lazyValues = "lazy".equals(storage);
+		options.offHeapValues = "offHeap".equals(storage);
+		DriverFactory factory = new DriverFactory();
+		_store = new SynchronousStore(factory, options);
+		_store.attachToExistingTopic(TopicName.fromString("topic"), CODEC, CODEC);
+		_driver = factory.driver;
+		_keys = new byte[keyCount][];
+		for (int i = 0; i < keyCount; ++i) {
+			_keys[i] = CODEC.serialize("key" + i);
+		}
+		_value = "a value of a typical small size".getBytes(StandardCharsets.UTF_8);
+		_offset = 0L;
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		_store.close();
+	}
+
+	@Benchmark
+	public void applyPut() {
+		_offset += 1L;
+		_driver.put(_keys[(int)_offset & (keyCount - 1)], _value, _offset);
+	}
+
+	@Benchmark
+	public void applyBatch(Batch batch) {
+		for (int i = 0; i < batch.batchSize; ++i) {
+			_offset += 1L;
+			_driver.add(_keys[(int)_offset & (keyCount - 1)], _value, _offset);
+		}
+		_driver.applyBatch(_offset);
+	}
+
+
+	/**
+	 * The size of the batches for applyBatch (separate so applyPut isn't repeated for each size).
+	 */
+	@State(Scope.Thread)
+	public static class Batch {
+		@Param({"16", "256"})
+		public int batchSize;
+	}
+
+
+	/**
+	 * Opens writers from a LocalFactory (which we never use) but keeps the listener shim so the benchmark can drive it.
+	 */
+	private static class DriverFactory implements IConnectionFactory {
+		private final LocalFactory _writers = new LocalFactory();
+		public Driver<?, ?> driver;
+		
+		@Override
+		public <K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, long previousConsequenceOffset) throws IOException {
+			Assert.assertTrue(null == this.driver);
+			this.driver = new Driver<>(shim, keyCodec, valueCodec);
+			return new IReadingConnection() {
+				@Override
+				public void close() throws IOException {
+				}
+			};
+		}
+		
+		@Override
+		public IWritingConnection openWriter() throws IOException {
+			return _writers.openWriter();
+		}
+	}
+
+
+	private static class Driver<K, V> {
+		private final IListenerTopicShim<K, V> _shim;
+		private final ICodec<K> _keyCodec;
+		private final ICodec<V> _valueCodec;
+		// Reused across batches, as TopicListener does.
+		private final List<KeyChange<K, V>> _batch;
+		
+		public Driver(IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec) {
+			_shim = shim;
+			_keyCodec = keyCodec;
+			_valueCodec = valueCodec;
+			_batch = new ArrayList<>();
+		}
+		
+		public void put(byte[] key, byte[] value, long offset) {
+			_shim.put(_keyCodec.deserialize(key), _valueCodec.deserialize(value), offset);
+			_shim.checkpoint(offset);
+		}
+		
+		public void add(byte[] key, byte[] value, long offset) {
+			_batch.add(KeyChange.put(_keyCodec.deserialize(key), _valueCodec.deserialize(value), offset));
+		}
+		
+		public void applyBatch(long lastOffset) {
+			_shim.applyBatch(_batch, lastOffset);
+			_batch.clear();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.jeffdisher.membrane.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jeffdisher.laminar.types.TopicName;
+import com.jeffdisher.laminar.utils.Assert;
+import com.jeffdisher.membrane.store.BoundTopic;
+import com.jeffdisher.membrane.store.StoreOptions;
+import com.jeffdisher.membrane.store.SynchronousStore;
+import com.jeffdisher.membrane.store.codecs.StringCodec;
+import com.jeffdisher.membrane.store.local.LocalFactory;
+
+
+/**
+ * Measures the store's read and write paths, over the LocalFactory, so the results reflect the store itself and not
+ * the network or a Laminar cluster.
+ * The "readHeavy" and "writeHeavy" groups run readers and writers against the same topics concurrently (3:1 and 1:3).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+	// This must be a power of 2 since we mask the cursor to pick a key.
+	private static final int KEY_COUNT = 1024;
+	private static final StringCodec CODEC = new StringCodec();
+
+	@Param({"1", "8"})
+	public int topicCount;
+
+	@Param({"false", "true"})
+	public boolean sharedKeys;
+
+	private SynchronousStore _store;
+	private List<BoundTopic<String, String>> _topics;
+	private String[] _keys;
+	private byte[] _value;
+
+	@Setup
+	public void setup() throws IOException {
+		StoreOptions options = new StoreOptions();
+		options.sharedKeys = sharedKeys;
+		_store = new SynchronousStore(new LocalFactory(), options);
+		_topics = new ArrayList<>();
+		_keys = new String[KEY_COUNT];
+		for (int i = 0; i < KEY_COUNT; ++i) {
+			_keys[i] = "key" + i;
+		}
+		_value = "a value of a typical small size".getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < topicCount; ++i) {
+			BoundTopic<String, String> topic = _store.defineTopic(TopicName.fromString("topic" + i), new byte[0], new byte[0], CODEC, CODEC, false);
+			Assert.assertTrue(null != topic);
+			for (String key : _keys) {
+				topic.put(key, _value);
+			}
+			_topics.add(topic);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		_store.close();
+	}
+
+	@Benchmark
+	public String get(Cursor cursor) {
+		int next = cursor.next();
+		return _topics.get(next % topicCount).get(_keys[next & (KEY_COUNT - 1)]);
+	}
+
+	@Benchmark
+	public boolean put(Cursor cursor) {
+		int next = cursor.next();
+		return _topics.get(next % topicCount).put(_keys[next & (KEY_COUNT - 1)], _value);
+	}
+
+	@Benchmark
+	public Map<TopicName, Object> readWholeDocument(Cursor cursor) {
+		return _store.readWholeDocument(_keys[cursor.next() & (KEY_COUNT - 1)]);
+	}
+
+	@Benchmark
+	@Group("readHeavy")
+	@GroupThreads(3)
+	public String readHeavyGet(Cursor cursor) {
+		return get(cursor);
+	}
+
+	@Benchmark
+	@Group("readHeavy")
+	@GroupThreads(1)
+	public boolean readHeavyPut(Cursor cursor) {
+		return put(cursor);
+	}
+
+	@Benchmark
+	@Group("writeHeavy")
+	@GroupThreads(1)
+	public String writeHeavyGet(Cursor cursor) {
+		return get(cursor);
+	}
+
+	@Benchmark
+	@Group("writeHeavy")
+	@GroupThreads(3)
+	public boolean writeHeavyPut(Cursor cursor) {
+		return put(cursor);
+	}
+
+
+	/**
+	 * Each thread walks the keys (and topics) from its own random starting point, so threads don't move in lock-step.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int _next;
+		
+		@Setup
+		public void setup() {
+			_next = ThreadLocalRandom.current().nextInt(KEY_COUNT);
+		}
+		
+		public int next() {
+			_next += 1;
+			// Keep this positive so it can be used with modulus.
+			return _next & Integer.MAX_VALUE;
+		}
+	}
+}
@@ -1,9 +1,16 @@
 package com.jeffdisher.membrane.store;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import com.jeffdisher.laminar.types.CommitInfo;
 import com.jeffdisher.laminar.types.TopicName;
 import com.jeffdisher.membrane.store.codecs.ICodec;
 import com.jeffdisher.membrane.store.connection.IWritingConnection;
+import com.jeffdisher.membrane.store.metrics.Counter;
+import com.jeffdisher.membrane.store.metrics.MetricsRegistry;
+import com.jeffdisher.membrane.store.storage.Versioned;
 
 
 public class BoundTopic<K, V> {
@@ -11,35 +18,112 @@ public class BoundTopic<K, V> {
 	private final TopicName _topic;
 	private final IClientTopicShim<K, V> _shim;
 	private final ICodec<K> _keyCodec;
+	private final Counter _reads;
+	private final Counter _validWrites;
+	private final Counter _invalidWrites;
 
 	public BoundTopic(IWritingConnection sharedWriter, TopicName topic, IClientTopicShim<K, V> shim, ICodec<K> keyCodec) {
+		this(sharedWriter, topic, shim, keyCodec, new MetricsRegistry());
+	}
+
+	public BoundTopic(IWritingConnection sharedWriter, TopicName topic, IClientTopicShim<K, V> shim, ICodec<K> keyCodec, MetricsRegistry metrics) {
 		_sharedWriter = sharedWriter;
 		_topic = topic;
 		_shim = shim;
 		_keyCodec = keyCodec;
+		_reads = metrics.counter("membrane_topic_reads_total", "Read calls made on the topic (a batch counts once).", "topic", topic.string);
+		_validWrites = metrics.counter("membrane_topic_writes_total", "Puts and deletes committed to the topic.", "topic", topic.string, "effect", "valid");
+		_invalidWrites = metrics.counter("membrane_topic_writes_total", "Puts and deletes committed to the topic.", "topic", topic.string, "effect", "invalid");
 	}
 
 	public boolean put(K key, byte[] rawValue) {
 		CommitInfo info = _sharedWriter.synchronousPut(_topic, _keyCodec.serialize(key), rawValue);
-		boolean didPut = false;
-		if (CommitInfo.Effect.VALID == info.effect) {
-			_shim.updateIntentionOffset(info.intentionOffset);
-			didPut = true;
-		}
-		return didPut;
+		return _didCommitValid(info);
+	}
+
+	/**
+	 * Like put() but returns a session token for the write, which can be passed to ReadConsistency.session() to read
+	 * it back, or 0 if the put wasn't valid.
+	 */
+	public long putForSession(K key, byte[] rawValue) {
+		CommitInfo info = _sharedWriter.synchronousPut(_topic, _keyCodec.serialize(key), rawValue);
+		return _didCommitValid(info)
+				? info.intentionOffset
+				: 0L
+		;
 	}
 
 	public boolean delete(K key) {
 		CommitInfo info = _sharedWriter.synchronousDelete(_topic, _keyCodec.serialize(key));
-		boolean didDelete = false;
-		if (CommitInfo.Effect.VALID == info.effect) {
-			_shim.updateIntentionOffset(info.intentionOffset);
-			didDelete = true;
-		}
-		return didDelete;
+		return _didCommitValid(info);
+	}
+
+	/**
+	 * Like put() but returns as soon as the put has been sent, completing the future with whether or not the put was
+	 * valid, once it commits.
+	 */
+	public CompletableFuture<Boolean> putAsync(K key, byte[] rawValue) {
+		return _sharedWriter.asynchronousPut(_topic, _keyCodec.serialize(key), rawValue).thenApply((CommitInfo info) -> _didCommitValid(info));
+	}
+
+	/**
+	 * Like delete() but returns as soon as the delete has been sent, completing the future with whether or not the
+	 * delete was valid, once it commits.
+	 */
+	public CompletableFuture<Boolean> deleteAsync(K key) {
+		return _sharedWriter.asynchronousDelete(_topic, _keyCodec.serialize(key)).thenApply((CommitInfo info) -> _didCommitValid(info));
 	}
 
 	public V get(K key) {
-		return _shim.get(key);
+		_reads.increment();
+		return _shim.read(key, ReadConsistency.PROCESS).value;
+	}
+
+	public V get(K key, ReadConsistency consistency) {
+		_reads.increment();
+		return _shim.read(key, consistency).value;
+	}
+
+	/**
+	 * Reads all the given keys, waiting for the listener once for the whole batch.  Keys with no value are omitted.
+	 */
+	public Map<K, V> getAll(Collection<K> keys) {
+		_reads.increment();
+		return _shim.readAll(keys, ReadConsistency.PROCESS).value;
+	}
+
+	public ReadResult<Map<K, V>> readAll(Collection<K> keys, ReadConsistency consistency) {
+		_reads.increment();
+		return _shim.readAll(keys, consistency);
+	}
+
+	/**
+	 * Like get() but also reports how stale the value is, if the consistency's maximum wait elapsed.
+	 */
+	public ReadResult<V> read(K key, ReadConsistency consistency) {
+		_reads.increment();
+		return _shim.read(key, consistency);
+	}
+
+	/**
+	 * Like read() but also returns the offset of the change which set the value (the result's value is null if there is
+	 * no value).
+	 */
+	public ReadResult<Versioned<V>> readVersioned(K key, ReadConsistency consistency) {
+		_reads.increment();
+		return _shim.readVersioned(key, consistency);
+	}
+
+
+	private boolean _didCommitValid(CommitInfo info) {
+		boolean isValid = false;
+		if (CommitInfo.Effect.VALID == info.effect) {
+			_shim.updateIntentionOffset(info.intentionOffset);
+			_validWrites.increment();
+			isValid = true;
+		} else {
+			_invalidWrites.increment();
+		}
+		return isValid;
 	}
 }
@@ -0,0 +1,29 @@
+package com.jeffdisher.membrane.store;
+
+import java.util.function.Supplier;
+
+import com.jeffdisher.laminar.types.TopicName;
+
+
+/**
+ * Notified of every change a topic's listener applies to the store, in the order they are applied within the topic.
+ * These are called on the topic's listener thread, just after it releases the topic's lock (so readers may already see
+ * the change), but they still hold up the rest of the topic's changes so they must not block (anything slow should be
+ * queued and handled elsewhere).
+ */
+public interface IChangeListener {
+	/**
+	 * @param topic The topic changed.
+	 * @param key The key changed.
+	 * @param value Decodes the new value (on whichever thread calls it), so it is only paid for if it is needed.
+	 * @param intentionOffset The intention offset of the change.
+	 */
+	void didPut(TopicName topic, Object key, Supplier<Object> value, long intentionOffset);
+
+	void didDelete(TopicName topic, Object key, long intentionOffset);
+
+	/**
+	 * Called when a topic is destroyed, meaning all of its keys have been removed.
+	 */
+	void didDestroy(TopicName topic, long intentionOffset);
+}
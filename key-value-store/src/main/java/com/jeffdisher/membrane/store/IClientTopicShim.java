@@ -1,6 +1,14 @@
 package com.jeffdisher.membrane.store;
 
+import java.util.Collection;
+import java.util.Map;
+
+import com.jeffdisher.membrane.store.storage.Versioned;
+
+
 public interface IClientTopicShim<K, V> {
 	void updateIntentionOffset(long offset);
-	V get(K key);
+	ReadResult<V> read(K key, ReadConsistency consistency);
+	ReadResult<Versioned<V>> readVersioned(K key, ReadConsistency consistency);
+	ReadResult<Map<K, V>> readAll(Collection<K> keys, ReadConsistency consistency);
 }
@@ -1,5 +1,7 @@
 package com.jeffdisher.membrane.store;
 
+import java.util.List;
+
 
 public interface IListenerTopicShim<K, V> {
 	void delete(K key, long intentionOffset);
@@ -9,4 +11,22 @@ public interface IListenerTopicShim<K, V> {
 	void create(long intentionOffset);
 
 	void destroy(long intentionOffset);
+
+	/**
+	 * Called after each of the topic's consequences has been passed to one of the other calls, with the offset of that
+	 * consequence within the topic.  A listener reopened with this offset will resume with the following consequence.
+	 * 
+	 * @param consequenceOffset The topic-local offset of the consequence just applied.
+	 */
+	void checkpoint(long consequenceOffset);
+
+	/**
+	 * Applies a run of consecutive puts and deletes, in order, and then checkpoints at the offset of the last of their
+	 * consequences.  This has the same effect as the individual calls but lets the store apply the whole run at once.
+	 * The list is only valid for the duration of the call.
+	 * 
+	 * @param changes The puts and deletes to apply (must not be empty).
+	 * @param lastConsequenceOffset The topic-local offset of the consequence of the last change.
+	 */
+	void applyBatch(List<KeyChange<K, V>> changes, long lastConsequenceOffset);
 }
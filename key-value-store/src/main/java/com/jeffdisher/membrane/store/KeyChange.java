@@ -0,0 +1,28 @@
+package com.jeffdisher.membrane.store;
+
+
+/**
+ * A put or delete of one key, as passed to IListenerTopicShim.applyBatch().
+ */
+public class KeyChange<K, V> {
+	public static <K, V> KeyChange<K, V> put(K key, V value, long intentionOffset) {
+		return new KeyChange<>(key, value, false, intentionOffset);
+	}
+
+	public static <K, V> KeyChange<K, V> delete(K key, long intentionOffset) {
+		return new KeyChange<>(key, null, true, intentionOffset);
+	}
+
+	public final K key;
+	// Always null for a delete.
+	public final V value;
+	public final boolean isDelete;
+	public final long intentionOffset;
+
+	private KeyChange(K key, V value, boolean isDelete, long intentionOffset) {
+		this.key = key;
+		this.value = value;
+		this.isDelete = isDelete;
+		this.intentionOffset = intentionOffset;
+	}
+}
@@ -0,0 +1,85 @@
+package com.jeffdisher.membrane.store;
+
+import java.util.concurrent.TimeUnit;
+
+import com.jeffdisher.laminar.utils.Assert;
+
+
+/**
+ * Describes how up-to-date a read must be, relative to the writes made through this store:
+ * -EVENTUAL reads whatever the listener has applied, without waiting.
+ * -SESSION waits until the listener has applied the write identified by the session token (the intention offset returned
+ *  by BoundTopic.putForSession(), or the largest of several such offsets).
+ * -PROCESS (the default) waits until the listener has applied every write this store has made to the topic.
+ * Session tokens are only meaningful to the store which issued them:  a token is clamped to the last write this store
+ * made to each topic so a token from elsewhere degrades to PROCESS (or less) instead of waiting for a write we can't know
+ * about.
+ * Any of these can also be given a maximum wait (withMaxWait()), after which the read returns what it has, flagged as
+ * stale in its ReadResult, instead of waiting indefinitely for a stalled listener.
+ */
+public class ReadConsistency {
+	public static final ReadConsistency EVENTUAL = new ReadConsistency(Level.EVENTUAL, 0L, 0L);
+	public static final ReadConsistency PROCESS = new ReadConsistency(Level.PROCESS, 0L, 0L);
+
+	public static ReadConsistency session(long sessionToken) {
+		return new ReadConsistency(Level.SESSION, sessionToken, 0L);
+	}
+
+
+	public final Level level;
+	public final long sessionToken;
+	// 0 means that there is no limit.
+	public final long maxWaitMillis;
+
+	private ReadConsistency(Level level, long sessionToken, long maxWaitMillis) {
+		this.level = level;
+		this.sessionToken = sessionToken;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * @param maxWaitMillis The longest a read should wait for its listener (0 to wait indefinitely).
+	 * @return A copy of this consistency with the given maximum wait.
+	 */
+	public ReadConsistency withMaxWait(long maxWaitMillis) {
+		Assert.assertTrue(maxWaitMillis >= 0L);
+		return new ReadConsistency(this.level, this.sessionToken, maxWaitMillis);
+	}
+
+	/**
+	 * @param nowNanos The current System.nanoTime().
+	 * @return The System.nanoTime() after which a read should stop waiting (only meaningful if maxWaitMillis isn't 0).
+	 */
+	public long deadlineNanos(long nowNanos) {
+		return nowNanos + TimeUnit.MILLISECONDS.toNanos(this.maxWaitMillis);
+	}
+
+	/**
+	 * @param lastWrittenIntentionOffset The last intention offset this store wrote to the topic being read.
+	 * @return The intention offset the topic's listener must have reached before the read can proceed.
+	 */
+	public long targetOffset(long lastWrittenIntentionOffset) {
+		long target;
+		switch (this.level) {
+		case EVENTUAL:
+			target = 0L;
+			break;
+		case SESSION:
+			target = Math.min(this.sessionToken, lastWrittenIntentionOffset);
+			break;
+		case PROCESS:
+			target = lastWrittenIntentionOffset;
+			break;
+		default:
+			throw Assert.unreachable("Unknown level: " + this.level);
+		}
+		return target;
+	}
+
+
+	public static enum Level {
+		EVENTUAL,
+		SESSION,
+		PROCESS,
+	}
+}
@@ -0,0 +1,21 @@
+package com.jeffdisher.membrane.store;
+
+
+/**
+ * The result of a read, along with how far (in intention offsets) it was behind the offset it was meant to observe.
+ * The lag is only ever non-zero when a read with a maximum wait gave up waiting for its listener, in which case the value
+ * is whatever the listener had applied by then.
+ */
+public class ReadResult<V> {
+	public final V value;
+	public final long lagOffsets;
+
+	public ReadResult(V value, long lagOffsets) {
+		this.value = value;
+		this.lagOffsets = lagOffsets;
+	}
+
+	public boolean isStale() {
+		return (this.lagOffsets > 0L);
+	}
+}
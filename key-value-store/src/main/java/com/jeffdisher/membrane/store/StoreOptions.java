@@ -0,0 +1,58 @@
+package com.jeffdisher.membrane.store;
+
+import java.io.File;
+
+import com.jeffdisher.membrane.store.metrics.MetricsRegistry;
+
+
+/**
+ * The tunable options of a SynchronousStore.  A new instance holds the defaults, which can be changed before passing
+ * it to the store.
+ */
+public class StoreOptions {
+	/**
+	 * The number of writing connections to open (must be at least 1).
+	 */
+	public int writerCount;
+	/**
+	 * The directory where topic snapshots are written and loaded from, or null if snapshots are disabled.
+	 */
+	public File snapshotDirectory;
+	/**
+	 * How often to write new snapshots, when enabled (a final snapshot is also written on close).
+	 */
+	public long snapshotIntervalMillis;
+	/**
+	 * If true, topic values are stored encoded, in off-heap memory, and only decoded when read.
+	 */
+	public boolean offHeapValues;
+	/**
+	 * If true (and not off-heap), topic values are stored encoded, on the heap, and only decoded when first read.
+	 */
+	public boolean lazyValues;
+	/**
+	 * If true, lazy values keep their decoded form after the first read, trading memory for faster repeated reads.
+	 */
+	public boolean memoizeLazyValues;
+	/**
+	 * If true, the topics share one dictionary of keys and are keyed by its compact ids, so a document key is only stored
+	 * once no matter how many fields it has (ids are never released, even when a key is deleted).
+	 */
+	public boolean sharedKeys;
+	/**
+	 * The registry where the store and its topics record their metrics (share it with other components to expose them
+	 * all together).
+	 */
+	public MetricsRegistry metrics;
+
+	public StoreOptions() {
+		this.writerCount = 1;
+		this.snapshotDirectory = null;
+		this.snapshotIntervalMillis = 60_000L;
+		this.offHeapValues = false;
+		this.lazyValues = false;
+		this.memoizeLazyValues = true;
+		this.sharedKeys = false;
+		this.metrics = new MetricsRegistry();
+	}
+}
@@ -1,38 +1,124 @@
 package com.jeffdisher.membrane.store;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 import com.jeffdisher.laminar.types.CommitInfo;
 import com.jeffdisher.laminar.types.TopicName;
 import com.jeffdisher.laminar.utils.Assert;
 import com.jeffdisher.membrane.store.codecs.ICodec;
+import com.jeffdisher.membrane.store.codecs.IntegerCodec;
 import com.jeffdisher.membrane.store.connection.IConnectionFactory;
 import com.jeffdisher.membrane.store.connection.IReadingConnection;
 import com.jeffdisher.membrane.store.connection.IWritingConnection;
+import com.jeffdisher.membrane.store.connection.WritingConnectionPool;
+import com.jeffdisher.membrane.store.metrics.Counter;
+import com.jeffdisher.membrane.store.metrics.LatencyHistogram;
+import com.jeffdisher.membrane.store.metrics.MetricsRegistry;
+import com.jeffdisher.membrane.store.storage.HeapTopicStorage;
+import com.jeffdisher.membrane.store.storage.ITopicStorage;
+import com.jeffdisher.membrane.store.storage.IntegerTopicStorage;
+import com.jeffdisher.membrane.store.storage.KeyDictionary;
+import com.jeffdisher.membrane.store.storage.LazyTopicStorage;
+import com.jeffdisher.membrane.store.storage.OffHeapTopicStorage;
+import com.jeffdisher.membrane.store.storage.SharedKeyTopicStorage;
+import com.jeffdisher.membrane.store.storage.Versioned;
 
 
 public class SynchronousStore implements Closeable {
+	// The store-level lock only protects the _topics map - the data within each topic is protected by its own lock.
 	private final Object _lock;
 	private final IConnectionFactory _factory;
+	private final StoreOptions _options;
 	private final IWritingConnection _client;
-	private final Map<TopicName, TopicData<?, ?>> _topics;
+	private final Map<TopicName, TopicData<?, ?, ?>> _topics;
+	// Shared with every topic so that listeners added later still see changes to existing topics.
+	private final List<IChangeListener> _changeListeners;
+	// Only used when keys are shared:  the dictionary which all the topic storages are keyed by.
+	private final KeyDictionary _keys;
+	// Only used when snapshots are enabled:  the thread which periodically writes them and the latch to stop it.
+	private final Thread _snapshotThread;
+	private final CountDownLatch _stopSnapshots;
 
 	public SynchronousStore(IConnectionFactory factory) throws IOException {
+		this(factory, new StoreOptions());
+	}
+
+	/**
+	 * Creates a store using the given options.
+	 * 
+	 * @param factory The factory used to open the listening and writing connections.
+	 * @param options The options to use (these are read only during construction).
+	 * @throws IOException If there was a problem opening the writing connections.
+	 */
+	public SynchronousStore(IConnectionFactory factory, StoreOptions options) throws IOException {
 		_lock = new Object();
 		_factory = factory;
-		_client = _factory.openWriter();
+		_options = options;
+		_client = new WritingConnectionPool(_factory, options.writerCount);
 		_topics = new HashMap<>();
+		_changeListeners = new CopyOnWriteArrayList<>();
+		if (options.sharedKeys) {
+			_keys = new KeyDictionary();
+			options.metrics.gauge("membrane_shared_keys", "The number of distinct keys in the dictionary shared by all topics.", () -> _keys.size());
+		} else {
+			_keys = null;
+		}
+		if (null != options.snapshotDirectory) {
+			options.snapshotDirectory.mkdirs();
+			long intervalMillis = options.snapshotIntervalMillis;
+			_stopSnapshots = new CountDownLatch(1);
+			_snapshotThread = new Thread(() -> {
+				try {
+					while (!_stopSnapshots.await(intervalMillis, TimeUnit.MILLISECONDS)) {
+						_writeSnapshots();
+					}
+				} catch (InterruptedException e) {
+					// We don't use interruption.
+					throw Assert.unexpected(e);
+				}
+			});
+			_snapshotThread.start();
+		} else {
+			_stopSnapshots = null;
+			_snapshotThread = null;
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
+		if (null != _snapshotThread) {
+			_stopSnapshots.countDown();
+			try {
+				_snapshotThread.join();
+			} catch (InterruptedException e) {
+				// We don't use interruption.
+				throw Assert.unexpected(e);
+			}
+		}
 		_client.close();
-		for (TopicData<?, ?> data : _topics.values()) {
+		for (TopicData<?, ?, ?> data : _topics.values()) {
 			data.listener.close();
 		}
+		// Now that the listeners have stopped, write the final snapshots so a restart has nothing to replay.
+		if (null != _snapshotThread) {
+			_writeSnapshots();
+		}
 	}
 
 	public <K, V> BoundTopic<K, V> defineTopic(TopicName name, byte[] code, byte[] arguments, ICodec<K> keyCodec, ICodec<V> valueCodec, boolean allowExisting) {
@@ -52,134 +138,567 @@ public class SynchronousStore implements Closeable {
 		return _registerTopic(name, keyCodec, valueCodec);
 	}
 
+	/**
+	 * Adds a listener to be told about every change applied to any topic in the store, from now on.
+	 */
+	public void addChangeListener(IChangeListener listener) {
+		_changeListeners.add(listener);
+	}
+
+	public void removeChangeListener(IChangeListener listener) {
+		_changeListeners.remove(listener);
+	}
+
 	public Map<TopicName, Object> readWholeDocument(Object key) {
-		synchronized(_lock) {
-			Map<TopicName, Object> document = new HashMap<>();
-			for (Map.Entry<TopicName, TopicData<?,?>> entry : _topics.entrySet()) {
-				TopicData<?,?> data = _topics.get(entry.getKey());
-				_waitForReadSync(_lock, data);
-				Object value = data.map.get(key);
+		return readWholeDocument(key, ReadConsistency.PROCESS);
+	}
+
+	public Map<TopicName, Object> readWholeDocument(Object key, ReadConsistency consistency) {
+		return readDocument(key, consistency).value;
+	}
+
+	/**
+	 * Like readWholeDocument() but also reports how stale the document is, if the consistency's maximum wait elapsed.
+	 * The wait is shared by all the topics so the whole document is bounded by it, not each field, and the lag is that of
+	 * the furthest behind topic.
+	 */
+	public ReadResult<Map<TopicName, Object>> readDocument(Object key, ReadConsistency consistency) {
+		return _readDocument(key, _captureTopics(null), consistency, (ITopicStorage<?,?,?> storage, Object storageKey) -> storage.get(storageKey));
+	}
+
+	/**
+	 * Like readDocument() but only reads (and waits for) the given topics, ignoring any which aren't registered.
+	 */
+	public ReadResult<Map<TopicName, Object>> readDocumentFields(Object key, Collection<TopicName> fields, ReadConsistency consistency) {
+		return _readDocument(key, _captureTopics(fields), consistency, (ITopicStorage<?,?,?> storage, Object storageKey) -> storage.get(storageKey));
+	}
+
+	/**
+	 * Like readDocumentFields() (reading all fields if fields is null) but also returns the offset of the change which set
+	 * each value, so callers can tell if the document has changed since they last read it.
+	 */
+	public ReadResult<Map<TopicName, Versioned<?>>> readVersionedDocument(Object key, Collection<TopicName> fields, ReadConsistency consistency) {
+		return _readDocument(key, _captureTopics(fields), consistency, (ITopicStorage<?,?,?> storage, Object storageKey) -> storage.getVersioned(storageKey));
+	}
+
+	public <K> Map<K, Map<TopicName, Object>> readWholeDocuments(Collection<K> keys) {
+		return readDocuments(keys, null, ReadConsistency.PROCESS).value;
+	}
+
+	/**
+	 * Reads the documents for all the given keys (limited to the given fields, if not null), waiting for each topic
+	 * once for the whole batch, instead of once per key.  Every key is in the result, even if its document is empty.
+	 */
+	public <K> ReadResult<Map<K, Map<TopicName, Object>>> readDocuments(Collection<K> keys, Collection<TopicName> fields, ReadConsistency consistency) {
+		List<TopicData<?,?,?>> topics = _captureTopics(fields);
+		long[] targetOffsets = _captureTargets(topics, consistency);
+		long deadlineNanos = consistency.deadlineNanos(System.nanoTime());
+		Map<K, Map<TopicName, Object>> documents = new LinkedHashMap<>();
+		for (K key : keys) {
+			documents.put(key, new HashMap<>());
+		}
+		// The keys are resolved the same way as in _readDocument(), each one remembered (in document order) once found.
+		Object[] storageKeys = new Object[documents.size()];
+		long maxLag = 0L;
+		for (int i = 0; i < targetOffsets.length; ++i) {
+			TopicData<?,?,?> data = topics.get(i);
+			maxLag = Math.max(maxLag, _syncForRead(data, targetOffsets[i], consistency, deadlineNanos));
+			int keyIndex = 0;
+			for (Map.Entry<K, Map<TopicName, Object>> entry : documents.entrySet()) {
+				storageKeys[keyIndex] = _resolveKey(entry.getKey(), storageKeys[keyIndex]);
+				Object value = (null != storageKeys[keyIndex])
+						? data.storage.get(storageKeys[keyIndex])
+						: null
+				;
 				if (null != value) {
-					document.put(entry.getKey(), value);
+					entry.getValue().put(data.name, value);
+				}
+				keyIndex += 1;
+			}
+		}
+		return new ReadResult<>(documents, maxLag);
+	}
+
+
+	private List<TopicData<?,?,?>> _captureTopics(Collection<TopicName> fields) {
+		// We only hold the store lock long enough to capture the topics - each topic is then synchronized and read
+		// under its own lock so that we don't stall listeners (or other readers) of unrelated topics.
+		List<TopicData<?,?,?>> topics = new ArrayList<>();
+		synchronized(_lock) {
+			if (null == fields) {
+				topics.addAll(_topics.values());
+			} else {
+				for (TopicName field : fields) {
+					TopicData<?,?,?> data = _topics.get(field);
+					if (null != data) {
+						topics.add(data);
+					}
 				}
 			}
-			return document;
 		}
+		return topics;
 	}
 
+	private static long[] _captureTargets(List<TopicData<?,?,?>> topics, ReadConsistency consistency) {
+		// We fix every topic's target before waiting on any of them so the waits overlap:  the read takes as long as the
+		// slowest topic, not the sum of them, and writes which complete while we are waiting don't extend it.
+		long[] targetOffsets = new long[topics.size()];
+		for (int i = 0; i < targetOffsets.length; ++i) {
+			targetOffsets[i] = consistency.targetOffset(topics.get(i).lastWrittenIntentionOffset);
+		}
+		return targetOffsets;
+	}
+
+	// The reader returns what to put in the document for the key in the given storage (null if it has nothing).
+	private <T> ReadResult<Map<TopicName, T>> _readDocument(Object key, List<TopicData<?,?,?>> topics, ReadConsistency consistency, BiFunction<ITopicStorage<?,?,?>, Object, T> reader) {
+		long[] targetOffsets = _captureTargets(topics, consistency);
+		long deadlineNanos = consistency.deadlineNanos(System.nanoTime());
+		Map<TopicName, T> document = new HashMap<>();
+		long maxLag = 0L;
+		// With shared keys, the key is only looked up in the dictionary once, and then by id in each topic.
+		Object storageKey = null;
+		for (int i = 0; i < targetOffsets.length; ++i) {
+			TopicData<?,?,?> data = topics.get(i);
+			maxLag = Math.max(maxLag, _syncForRead(data, targetOffsets[i], consistency, deadlineNanos));
+			storageKey = _resolveKey(key, storageKey);
+			T value = (null != storageKey)
+					? reader.apply(data.storage, storageKey)
+					: null
+			;
+			if (null != value) {
+				document.put(data.name, value);
+			}
+		}
+		return new ReadResult<>(document, maxLag);
+	}
+
+	private Object _resolveKey(Object key, Object resolved) {
+		// Returns the key to pass to the topic storages, or null if no topic has it.  A key not in the dictionary is
+		// looked up again after each topic is synced, since the listener may have just added it.
+		Object storageKey;
+		if (null == _keys) {
+			storageKey = key;
+		} else if (null != resolved) {
+			storageKey = resolved;
+		} else {
+			storageKey = _keys.lookup(key);
+		}
+		return storageKey;
+	}
 
 	private <K, V> BoundTopic<K, V> _registerTopic(TopicName name, ICodec<K> keyCodec, ICodec<V> valueCodec) {
-		TopicData<K, V> data = new TopicData<>();
+		return _registerTopicWithStorage(name, keyCodec, _createStorage(valueCodec));
+	}
+
+	private <K, V> ITopicStorage<K, ?, V> _createStorage(ICodec<V> valueCodec) {
+		ITopicStorage<K, ?, V> storage;
+		if (null != _keys) {
+			// The value storage is keyed by the shared ids, instead of the topic's own keys.
+			storage = _shareKeys(this.<KeyDictionary.KeyId, V>_createValueStorage(valueCodec));
+		} else {
+			storage = _createValueStorage(valueCodec);
+		}
+		return storage;
+	}
+
+	private <K, S, V> ITopicStorage<K, S, V> _shareKeys(ITopicStorage<KeyDictionary.KeyId, S, V> storage) {
+		return new SharedKeyTopicStorage<>(_keys, storage);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <K, V> ITopicStorage<K, ?, V> _createValueStorage(ICodec<V> valueCodec) {
+		ITopicStorage<K, ?, V> storage;
+		if (valueCodec instanceof IntegerCodec) {
+			// Integers have a primitive storage which is already compact so we always use it (the codec means V is Integer).
+			storage = (ITopicStorage<K, ?, V>)(ITopicStorage<K, ?, ?>) new IntegerTopicStorage<K>();
+		} else if (_options.offHeapValues) {
+			storage = new OffHeapTopicStorage<>(valueCodec);
+		} else if (_options.lazyValues) {
+			storage = new LazyTopicStorage<>(valueCodec, _options.memoizeLazyValues);
+		} else {
+			storage = new HeapTopicStorage<>(valueCodec);
+		}
+		return storage;
+	}
+
+	private <K, S, V> BoundTopic<K, V> _registerTopicWithStorage(TopicName name, ICodec<K> keyCodec, ITopicStorage<K, S, V> storage) {
+		TopicData<K, S, V> data = new TopicData<>(name, keyCodec, storage, _changeListeners, _options.metrics);
 		try {
-			data.listener = _factory.openListener(name, new ListenerShim<>(_lock, data), keyCodec, valueCodec);
+			// If we have a snapshot, start from it and only listen to what came after it.
+			if (null != _options.snapshotDirectory) {
+				TopicSnapshot snapshot = TopicSnapshot.read(TopicSnapshot.fileForTopic(_options.snapshotDirectory, name.string), keyCodec, storage);
+				if (null != snapshot) {
+					data.lastReadIntentionOffset = snapshot.lastReadIntentionOffset;
+					data.lastConsequenceOffset = snapshot.lastConsequenceOffset;
+					data.isFromSnapshot = true;
+				}
+			}
+			// The listener decodes values only as far as the storage wants them decoded.
+			data.listener = _factory.openListener(name, new ListenerShim<>(data), keyCodec, storage.getStoredCodec(), data.lastConsequenceOffset);
 		} catch (IOException e) {
 			// This is a demonstration, so we don't want to handle this and hide usage errors (although we could just fail to create the BoundTopic).
 			throw Assert.unexpected(e);
 		}
-		BoundTopic<K, V> bound = new BoundTopic<K, V>(_client, name, new LockShim<K, V>(_lock, data), keyCodec);
+		BoundTopic<K, V> bound = new BoundTopic<K, V>(_client, name, new LockShim<K, V>(data), keyCodec, _options.metrics);
+		// These are read when the metrics are written, without the topic lock, so they are only estimates.
+		_options.metrics.gauge("membrane_replication_lag_offsets", "How far the topic's listener is behind the last write this process made to it.", () -> Math.max(0L, data.lastWrittenIntentionOffset - data.lastReadIntentionOffset), "topic", name.string);
+		_options.metrics.gauge("membrane_topic_keys", "The number of keys stored in the topic.", () -> storage.size(), "topic", name.string);
 		synchronized(_lock) {
-			TopicData<?, ?> removed = _topics.put(name, data);
+			TopicData<?, ?, ?> removed = _topics.put(name, data);
 			// We don't handle this error - it is just incorrect usage.
 			Assert.assertTrue(null == removed);
 		}
 		return bound;
 	}
 
-	private static void _waitForReadSync(Object heldLock, TopicData<?, ?> data) {
-		long initialWrittenIndex = data.lastWrittenIntentionOffset;
-		while (data.lastReadIntentionOffset < initialWrittenIndex) {
+	private void _writeSnapshots() {
+		Map<TopicName, TopicData<?,?,?>> topics;
+		synchronized(_lock) {
+			topics = new HashMap<>(_topics);
+		}
+		for (TopicData<?,?,?> data : topics.values()) {
 			try {
-				heldLock.wait();
-			} catch (InterruptedException e) {
-				// We don't use interruption.
-				throw Assert.unexpected(e);
+				_writeSnapshot(data);
+			} catch (IOException e) {
+				// We will try again on the next interval so just report this.
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private <K, S> void _writeSnapshot(TopicData<K, S, ?> data) throws IOException {
+		// We only hold the lock to capture the offsets, not while writing the storage (see TopicSnapshot for why this is
+		// safe).
+		long lastReadIntentionOffset;
+		long lastConsequenceOffset;
+		data.lock.lock();
+		try {
+			lastReadIntentionOffset = data.lastReadIntentionOffset;
+			lastConsequenceOffset = data.lastConsequenceOffset;
+		} finally {
+			data.lock.unlock();
+		}
+		File file = TopicSnapshot.fileForTopic(_options.snapshotDirectory, data.name.string);
+		TopicSnapshot.write(file, lastReadIntentionOffset, lastConsequenceOffset, data.storage, data.keyCodec);
+	}
+
+	private static <V> ReadResult<V> _readSynced(TopicData<?, ?, V> data, Object key, long targetOffset, ReadConsistency consistency, long deadlineNanos) {
+		long lag = _syncForRead(data, targetOffset, consistency, deadlineNanos);
+		return new ReadResult<>(data.storage.get(key), lag);
+	}
+
+	private static long _syncForRead(TopicData<?, ?, ?> data, long targetOffset, ReadConsistency consistency, long deadlineNanos) {
+		// Once this returns, the storage can be read without the lock:  the listener updates the storage before publishing
+		// its offset so we will see everything up to the offset we waited for.
+		long lag = 0L;
+		if (data.lastReadIntentionOffset < targetOffset) {
+			long startNanos = System.nanoTime();
+			data.lock.lock();
+			try {
+				_waitForReadSync(data, targetOffset, consistency, deadlineNanos);
+				// If we gave up waiting, report how far behind we still are.
+				lag = Math.max(0L, targetOffset - data.lastReadIntentionOffset);
+			} finally {
+				data.lock.unlock();
+			}
+			data.readSyncWait.record(System.nanoTime() - startNanos);
+			if (lag > 0L) {
+				data.staleReads.increment();
 			}
 		}
+		return lag;
 	}
 
+	private static void _waitForReadSync(TopicData<?, ?, ?> data, long targetOffset, ReadConsistency consistency, long deadlineNanos) {
+		// NOTE:  Must be called with data.lock held.
+		if (data.lastReadIntentionOffset < targetOffset) {
+			// We register a waiter for the offset we need so that the listener only wakes us once it has been reached.
+			Waiter waiter = new Waiter(targetOffset, data.lock.newCondition());
+			data.waiters.add(waiter);
+			boolean isBounded = (0L != consistency.maxWaitMillis);
+			boolean didTimeOut = false;
+			while (!didTimeOut && (data.lastReadIntentionOffset < targetOffset)) {
+				try {
+					if (isBounded) {
+						long remainingNanos = deadlineNanos - System.nanoTime();
+						if (remainingNanos > 0L) {
+							waiter.condition.awaitNanos(remainingNanos);
+						} else {
+							didTimeOut = true;
+						}
+					} else {
+						waiter.condition.await();
+					}
+				} catch (InterruptedException e) {
+					// We don't use interruption.
+					throw Assert.unexpected(e);
+				}
+			}
+			if (didTimeOut) {
+				// The listener never reached us so we are still registered.
+				data.waiters.remove(waiter);
+			}
+		}
+	}
+
+	private static long _timedLock(TopicData<?, ?, ?> data) {
+		// We only time the short critical sections (not the read waits, which release the lock while blocked).
+		long startNanos = System.nanoTime();
+		data.lock.lock();
+		long acquiredNanos = System.nanoTime();
+		data.lockWait.record(acquiredNanos - startNanos);
+		return acquiredNanos;
+	}
 
-	private static class ListenerShim<K, V> implements IListenerTopicShim<K, V> {
-		private final Object _sharedLock;
-		private final TopicData<K, V> _data;
+	private static void _timedUnlock(TopicData<?, ?, ?> data, long acquiredNanos) {
+		data.lockHold.record(System.nanoTime() - acquiredNanos);
+		data.lock.unlock();
+	}
+
+	private static void _signalReachedWaiters(TopicData<?, ?, ?> data) {
+		// NOTE:  Must be called with data.lock held.
+		// The waiters are ordered by target offset so we only need to signal (and remove) those at the head.
+		Waiter head = data.waiters.peek();
+		while ((null != head) && (head.targetOffset <= data.lastReadIntentionOffset)) {
+			data.waiters.remove();
+			head.condition.signal();
+			head = data.waiters.peek();
+		}
+	}
+
+
+	private static class ListenerShim<K, S> implements IListenerTopicShim<K, S> {
+		private final TopicData<K, S, ?> _data;
 		
-		public ListenerShim(Object sharedLock, TopicData<K, V> data) {
-			_sharedLock = sharedLock;
+		public ListenerShim(TopicData<K, S, ?> data) {
 			_data = data;
 		}
 		
 		@Override
 		public void delete(K key, long intentionOffset) {
-			synchronized (_sharedLock) {
-				_data.map.remove(key);
+			long acquiredNanos = _timedLock(_data);
+			try {
+				_data.storage.remove(key);
 				_data.lastReadIntentionOffset = intentionOffset;
-				_sharedLock.notifyAll();
+				_signalReachedWaiters(_data);
+			} finally {
+				_timedUnlock(_data, acquiredNanos);
 			}
+			_notifyDelete(key, intentionOffset);
 		}
 		
 		@Override
-		public void put(K key, V value, long intentionOffset) {
-			synchronized (_sharedLock) {
-				_data.map.put(key, value);
+		public void put(K key, S value, long intentionOffset) {
+			long acquiredNanos = _timedLock(_data);
+			try {
+				_data.storage.put(key, value, intentionOffset);
 				_data.lastReadIntentionOffset = intentionOffset;
-				_sharedLock.notifyAll();
+				_signalReachedWaiters(_data);
+			} finally {
+				_timedUnlock(_data, acquiredNanos);
+			}
+			_notifyPut(key, value, intentionOffset);
+		}
+		
+		@Override
+		public void applyBatch(List<KeyChange<K, S>> changes, long lastConsequenceOffset) {
+			long acquiredNanos = _timedLock(_data);
+			try {
+				for (KeyChange<K, S> change : changes) {
+					if (change.isDelete) {
+						_data.storage.remove(change.key);
+					} else {
+						_data.storage.put(change.key, change.value, change.intentionOffset);
+					}
+				}
+				// We only publish the offsets (and wake readers) once, at the end, after the whole batch is stored, so a
+				// reader waiting for any offset in the batch sees all of it.  A reader whose target was already reached
+				// reads the storage without the lock, though, so it can see part of the batch (as it can see any put).
+				_data.lastReadIntentionOffset = changes.get(changes.size() - 1).intentionOffset;
+				_data.lastConsequenceOffset = lastConsequenceOffset;
+				_data.consequencesApplied.add(changes.size());
+				_signalReachedWaiters(_data);
+			} finally {
+				_timedUnlock(_data, acquiredNanos);
+			}
+			for (KeyChange<K, S> change : changes) {
+				if (change.isDelete) {
+					_notifyDelete(change.key, change.intentionOffset);
+				} else {
+					_notifyPut(change.key, change.value, change.intentionOffset);
+				}
 			}
 		}
 		
 		@Override
 		public void create(long intentionOffset) {
-			// Just verify the map is empty.
-			synchronized (_sharedLock) {
-				Assert.assertTrue(_data.map.isEmpty());
+			long acquiredNanos = _timedLock(_data);
+			try {
+				if (_data.isFromSnapshot) {
+					// A fuzzy snapshot (see TopicSnapshot) can hold changes from after this create, if it was captured
+					// while the topic was being created, but they will all be applied again so we start from empty.
+					_data.storage.clear();
+				} else {
+					// Just verify the storage is empty.
+					Assert.assertTrue(_data.storage.isEmpty());
+				}
+			} finally {
+				_timedUnlock(_data, acquiredNanos);
 			}
 		}
 		
 		@Override
 		public void destroy(long intentionOffset) {
-			// Clear the map.
-			synchronized (_sharedLock) {
-				_data.map.clear();
+			// Clear the storage.
+			long acquiredNanos = _timedLock(_data);
+			try {
+				_data.storage.clear();
+			} finally {
+				_timedUnlock(_data, acquiredNanos);
+			}
+			for (IChangeListener listener : _data.changeListeners) {
+				listener.didDestroy(_data.name, intentionOffset);
+			}
+		}
+		
+		@Override
+		public void checkpoint(long consequenceOffset) {
+			long acquiredNanos = _timedLock(_data);
+			try {
+				_data.lastConsequenceOffset = consequenceOffset;
+				// The listener checkpoints after every consequence it applies.
+				_data.consequencesApplied.increment();
+			} finally {
+				_timedUnlock(_data, acquiredNanos);
+			}
+		}
+		
+		// Change listeners are only called once we have released the lock, so they never delay readers of the topic.
+		// They are still called in the topic's order since only its listener calls this shim.
+		private void _notifyDelete(K key, long intentionOffset) {
+			for (IChangeListener listener : _data.changeListeners) {
+				listener.didDelete(_data.name, key, intentionOffset);
+			}
+		}
+		
+		private void _notifyPut(K key, S value, long intentionOffset) {
+			if (!_data.changeListeners.isEmpty()) {
+				// The listeners want the decoded value, which may not be what we stored, but we only decode it if one of
+				// them asks for it.
+				Supplier<Object> decoded = () -> _data.storage.decode(value);
+				for (IChangeListener listener : _data.changeListeners) {
+					listener.didPut(_data.name, key, decoded, intentionOffset);
+				}
 			}
 		}
 	}
 
 
 	private static class LockShim<K, V> implements IClientTopicShim<K, V> {
-		private final Object _sharedLock;
-		private final TopicData<K, V> _data;
+		private final TopicData<K, ?, V> _data;
 		
-		public LockShim(Object sharedLock, TopicData<K, V> data) {
-			_sharedLock = sharedLock;
+		public LockShim(TopicData<K, ?, V> data) {
 			_data = data;
 		}
 		
 		@Override
 		public void updateIntentionOffset(long offset) {
-			synchronized (_sharedLock) {
-				_data.lastWrittenIntentionOffset = offset;
+			long acquiredNanos = _timedLock(_data);
+			try {
+				// Writes can complete on different threads in any order so we only ever move this forward.
+				if (offset > _data.lastWrittenIntentionOffset) {
+					_data.lastWrittenIntentionOffset = offset;
+				}
 				// Nobody wait for the written index to increase so we just return.
+			} finally {
+				_timedUnlock(_data, acquiredNanos);
 			}
 		}
 		
 		@Override
-		public V get(K key) {
-			synchronized (_sharedLock) {
-				_waitForReadSync(_sharedLock, _data);
-				return _data.map.get(key);
+		public ReadResult<V> read(K key, ReadConsistency consistency) {
+			long targetOffset = consistency.targetOffset(_data.lastWrittenIntentionOffset);
+			return _readSynced(_data, key, targetOffset, consistency, consistency.deadlineNanos(System.nanoTime()));
+		}
+		
+		@Override
+		public ReadResult<Versioned<V>> readVersioned(K key, ReadConsistency consistency) {
+			long targetOffset = consistency.targetOffset(_data.lastWrittenIntentionOffset);
+			long lag = _syncForRead(_data, targetOffset, consistency, consistency.deadlineNanos(System.nanoTime()));
+			return new ReadResult<>(_data.storage.getVersioned(key), lag);
+		}
+		
+		@Override
+		public ReadResult<Map<K, V>> readAll(Collection<K> keys, ReadConsistency consistency) {
+			long targetOffset = consistency.targetOffset(_data.lastWrittenIntentionOffset);
+			long lag = _syncForRead(_data, targetOffset, consistency, consistency.deadlineNanos(System.nanoTime()));
+			Map<K, V> values = new LinkedHashMap<>();
+			for (K key : keys) {
+				V value = _data.storage.get(key);
+				if (null != value) {
+					values.put(key, value);
+				}
 			}
+			return new ReadResult<>(values, lag);
 		}
 	}
 
 
-	private static class TopicData<K, V> {
-		public final Map<K, V> map;
-		public long lastWrittenIntentionOffset;
-		public long lastReadIntentionOffset;
+	private static class TopicData<K, S, V> {
+		public final TopicName name;
+		public final ICodec<K> keyCodec;
+		// Each topic is protected by its own lock so that listeners and readers of different topics don't contend.
+		public final ReentrantLock lock;
+		// Readers blocked waiting for the listener, ordered by the intention offset they are waiting to see.
+		public final PriorityQueue<Waiter> waiters;
+		// The storage and offsets are only modified under the lock but can be read without it when the topic is caught up.
+		public final ITopicStorage<K, S, V> storage;
+		public volatile long lastWrittenIntentionOffset;
+		public volatile long lastReadIntentionOffset;
+		// The offset of the last consequence the listener applied within the topic (where a restarted listener resumes).
+		public long lastConsequenceOffset;
+		// Set if the storage was loaded from a snapshot, before the listener started.
+		public boolean isFromSnapshot;
 		public IReadingConnection listener;
+		public final List<IChangeListener> changeListeners;
+		public final Counter consequencesApplied;
+		public final Counter staleReads;
+		public final LatencyHistogram readSyncWait;
+		public final LatencyHistogram lockWait;
+		public final LatencyHistogram lockHold;
 		
-		public TopicData() {
-			this.map = new HashMap<>();
+		public TopicData(TopicName name, ICodec<K> keyCodec, ITopicStorage<K, S, V> storage, List<IChangeListener> changeListeners, MetricsRegistry metrics) {
+			this.name = name;
+			this.keyCodec = keyCodec;
+			this.lock = new ReentrantLock();
+			this.waiters = new PriorityQueue<>();
+			this.storage = storage;
 			this.lastWrittenIntentionOffset = 0L;
 			this.lastReadIntentionOffset = 0L;
+			this.lastConsequenceOffset = 0L;
+			this.isFromSnapshot = false;
+			this.changeListeners = changeListeners;
+			this.consequencesApplied = metrics.counter("membrane_consequences_applied_total", "Consequences the topic's listener has applied.", "topic", name.string);
+			this.staleReads = metrics.counter("membrane_stale_reads_total", "Reads which gave up waiting for the topic's listener.", "topic", name.string);
+			this.readSyncWait = metrics.histogram("membrane_read_sync_wait_seconds", "Time reads spent waiting for the topic's listener to catch up (only reads which had to wait).", "topic", name.string);
+			this.lockWait = metrics.histogram("membrane_topic_lock_wait_seconds", "Time spent acquiring the topic lock to apply changes or update offsets.", "topic", name.string);
+			this.lockHold = metrics.histogram("membrane_topic_lock_hold_seconds", "Time the topic lock was held to apply changes or update offsets.", "topic", name.string);
+		}
+	}
+
+
+	private static class Waiter implements Comparable<Waiter> {
+		public final long targetOffset;
+		public final Condition condition;
+		
+		public Waiter(long targetOffset, Condition condition) {
+			this.targetOffset = targetOffset;
+			this.condition = condition;
+		}
+		
+		@Override
+		public int compareTo(Waiter other) {
+			return Long.compare(this.targetOffset, other.targetOffset);
 		}
 	}
 }
@@ -0,0 +1,113 @@
+package com.jeffdisher.membrane.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.jeffdisher.membrane.store.codecs.ICodec;
+import com.jeffdisher.membrane.store.storage.ITopicStorage;
+
+
+/**
+ * The on-disk snapshot of a single topic:  its key-value pairs and the offsets needed to resume listening after them.
+ * The file is a header (magic number and both offsets) followed by length-prefixed key-value pairs, each with the
+ * offset of the change which set it (so versions survive a restart), terminated by a negative key length.  Files are
+ * written to a temporary name and then renamed so a partial snapshot is never loaded.
+ * 
+ * Snapshots are "fuzzy":  the offsets are captured before the entries are read, so the entries can include changes
+ * from after those offsets.  This is safe since resuming from the offsets will apply those changes again, and applying
+ * any suffix of the topic's consequences over a state which already includes some of them gives the same final state.
+ * The exception is the topic's creation, which expects empty storage, so the store clears a loaded snapshot if the
+ * listener replays the creation.
+ */
+public class TopicSnapshot {
+	private static final int MAGIC = 0x4D425331; // "MBS1"
+	private static final String SUFFIX = ".snapshot";
+	private static final String TEMP_SUFFIX = ".snapshot.tmp";
+
+	public static File fileForTopic(File directory, String topicName) {
+		return new File(directory, topicName + SUFFIX);
+	}
+
+	/**
+	 * Reads the snapshot in the given file, putting its key-value pairs into the given storage.
+	 * 
+	 * @return The offsets of the snapshot or null if there is no such file.
+	 * @throws IOException If the file couldn't be read or was malformed.
+	 */
+	public static <K, S> TopicSnapshot read(File file, ICodec<K> keyCodec, ITopicStorage<K, S, ?> storage) throws IOException {
+		ICodec<S> storedCodec = storage.getStoredCodec();
+		TopicSnapshot snapshot = null;
+		if (file.isFile()) {
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				if (MAGIC != input.readInt()) {
+					throw new IOException("Not a topic snapshot: " + file);
+				}
+				long lastReadIntentionOffset = input.readLong();
+				long lastConsequenceOffset = input.readLong();
+				int keyLength = input.readInt();
+				while (keyLength >= 0) {
+					byte[] key = new byte[keyLength];
+					input.readFully(key);
+					long changeOffset = input.readLong();
+					byte[] value = new byte[input.readInt()];
+					input.readFully(value);
+					storage.put(keyCodec.deserialize(key), storedCodec.deserialize(value), changeOffset);
+					keyLength = input.readInt();
+				}
+				snapshot = new TopicSnapshot(lastReadIntentionOffset, lastConsequenceOffset);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Writes a snapshot of the given storage to the given file, replacing any existing snapshot only once it is
+	 * completely written.
+	 */
+	public static <K, S> void write(File file, long lastReadIntentionOffset, long lastConsequenceOffset, ITopicStorage<K, S, ?> storage, ICodec<K> keyCodec) throws IOException {
+		ICodec<S> storedCodec = storage.getStoredCodec();
+		File temp = new File(file.getParentFile(), file.getName().replace(SUFFIX, TEMP_SUFFIX));
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			output.writeInt(MAGIC);
+			output.writeLong(lastReadIntentionOffset);
+			output.writeLong(lastConsequenceOffset);
+			try {
+				storage.forEachStored((K key, S stored, long changeOffset) -> {
+					byte[] keyBytes = keyCodec.serialize(key);
+					byte[] valueBytes = storedCodec.serialize(stored);
+					try {
+						output.writeInt(keyBytes.length);
+						output.write(keyBytes);
+						output.writeLong(changeOffset);
+						output.writeInt(valueBytes.length);
+						output.write(valueBytes);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			output.writeInt(-1);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	public final long lastReadIntentionOffset;
+	public final long lastConsequenceOffset;
+
+	private TopicSnapshot(long lastReadIntentionOffset, long lastConsequenceOffset) {
+		this.lastReadIntentionOffset = lastReadIntentionOffset;
+		this.lastConsequenceOffset = lastConsequenceOffset;
+	}
+}
@@ -0,0 +1,17 @@
+package com.jeffdisher.membrane.store.codecs;
+
+
+/**
+ * The identity codec, used when raw bytes should be passed through without being decoded.
+ */
+public class ByteArrayCodec implements ICodec<byte[]> {
+	@Override
+	public byte[] deserialize(byte[] bytes) {
+		return bytes;
+	}
+
+	@Override
+	public byte[] serialize(byte[] object) {
+		return object;
+	}
+}
@@ -0,0 +1,15 @@
+package com.jeffdisher.membrane.store.codecs;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A codec which can also decode directly from a buffer, avoiding copying the bytes into an array for deserialize().
+ * Only decoding is offered since writes go to Laminar as arrays, anyway.
+ */
+public interface IBufferCodec<T> extends ICodec<T> {
+	/**
+	 * Decodes an object from all the remaining bytes in the source, advancing its position to its limit.
+	 */
+	T decode(ByteBuffer source);
+}
@@ -3,14 +3,40 @@ package com.jeffdisher.membrane.store.codecs;
 import java.nio.ByteBuffer;
 
 
-public class IntegerCodec implements ICodec<Integer> {
+/**
+ * Integers are encoded as 4-byte big-endian values.
+ * The static helpers allow callers which only need the primitive value to avoid boxing or allocating buffers.
+ */
+public class IntegerCodec implements IBufferCodec<Integer> {
+	public static int decodeInt(byte[] bytes) {
+		return ((bytes[0] & 0xff) << 24)
+				| ((bytes[1] & 0xff) << 16)
+				| ((bytes[2] & 0xff) << 8)
+				| (bytes[3] & 0xff)
+		;
+	}
+
+	public static void encodeInt(int value, byte[] target) {
+		target[0] = (byte)(value >> 24);
+		target[1] = (byte)(value >> 16);
+		target[2] = (byte)(value >> 8);
+		target[3] = (byte)value;
+	}
+
 	@Override
 	public Integer deserialize(byte[] bytes) {
-		return ByteBuffer.wrap(bytes).getInt();
+		return decodeInt(bytes);
 	}
 
 	@Override
 	public byte[] serialize(Integer object) {
-		return ByteBuffer.allocate(Integer.BYTES).putInt(object).array();
+		byte[] bytes = new byte[Integer.BYTES];
+		encodeInt(object, bytes);
+		return bytes;
+	}
+
+	@Override
+	public Integer decode(ByteBuffer source) {
+		return source.getInt();
 	}
 }
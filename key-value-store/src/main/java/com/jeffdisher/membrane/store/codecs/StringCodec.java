@@ -1,9 +1,13 @@
 package com.jeffdisher.membrane.store.codecs;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 
-public class StringCodec implements ICodec<String> {
+/**
+ * Strings are encoded as UTF-8.
+ */
+public class StringCodec implements IBufferCodec<String> {
 	@Override
 	public String deserialize(byte[] bytes) {
 		return new String(bytes, StandardCharsets.UTF_8);
@@ -13,4 +17,17 @@ public class StringCodec implements ICodec<String> {
 	public byte[] serialize(String object) {
 		return object.getBytes(StandardCharsets.UTF_8);
 	}
+
+	@Override
+	public String decode(ByteBuffer source) {
+		String string;
+		if (source.hasArray()) {
+			// Decode straight out of the backing array.
+			string = new String(source.array(), source.arrayOffset() + source.position(), source.remaining(), StandardCharsets.UTF_8);
+			source.position(source.limit());
+		} else {
+			string = StandardCharsets.UTF_8.decode(source).toString();
+		}
+		return string;
+	}
 }
@@ -8,6 +8,10 @@ import com.jeffdisher.membrane.store.codecs.ICodec;
 
 
 public interface IConnectionFactory {
-	<K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec) throws IOException;
+	/**
+	 * Opens a listener which will send the consequences of the given topic, after previousConsequenceOffset, to the
+	 * given shim (passing 0L starts from the beginning of the topic).
+	 */
+	<K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, long previousConsequenceOffset) throws IOException;
 	IWritingConnection openWriter() throws IOException;
 }
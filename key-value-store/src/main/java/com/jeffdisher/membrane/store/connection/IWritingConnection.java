@@ -1,6 +1,7 @@
 package com.jeffdisher.membrane.store.connection;
 
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
 
 import com.jeffdisher.laminar.types.CommitInfo;
 import com.jeffdisher.laminar.types.TopicName;
@@ -13,4 +14,15 @@ public interface IWritingConnection extends Closeable {
 
 	CommitInfo synchronousDelete(TopicName name, byte[] key);
 
+	/**
+	 * The asynchronous variants send the message and return immediately, completing the returned future once the
+	 * message has committed.  Note that the future may be completed on an internal thread of the connection so callers
+	 * shouldn't block within any dependent stages.
+	 */
+	CompletableFuture<CommitInfo> asynchronousCreateTopic(TopicName name, byte[] code, byte[] arguments);
+
+	CompletableFuture<CommitInfo> asynchronousPut(TopicName name, byte[] key, byte[] value);
+
+	CompletableFuture<CommitInfo> asynchronousDelete(TopicName name, byte[] key);
+
 }
@@ -0,0 +1,113 @@
+package com.jeffdisher.membrane.store.connection;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jeffdisher.laminar.types.CommitInfo;
+import com.jeffdisher.laminar.types.TopicName;
+import com.jeffdisher.laminar.utils.Assert;
+
+
+/**
+ * Spreads writes over several underlying writing connections.
+ * Puts and deletes are routed by key so that all writes to a given key go over the same connection, preserving their
+ * order.  Everything else goes to whichever connection has the fewest writes in flight.
+ */
+public class WritingConnectionPool implements IWritingConnection {
+	private final IWritingConnection[] _writers;
+	private final AtomicInteger[] _inFlight;
+
+	public WritingConnectionPool(IConnectionFactory factory, int writerCount) throws IOException {
+		Assert.assertTrue(writerCount > 0);
+		_writers = new IWritingConnection[writerCount];
+		_inFlight = new AtomicInteger[writerCount];
+		for (int i = 0; i < writerCount; ++i) {
+			_writers[i] = factory.openWriter();
+			_inFlight[i] = new AtomicInteger(0);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (IWritingConnection writer : _writers) {
+			writer.close();
+		}
+	}
+
+	@Override
+	public CommitInfo synchronousCreateTopic(TopicName name, byte[] code, byte[] arguments) {
+		int index = _leastLoadedIndex();
+		_inFlight[index].incrementAndGet();
+		try {
+			return _writers[index].synchronousCreateTopic(name, code, arguments);
+		} finally {
+			_inFlight[index].decrementAndGet();
+		}
+	}
+
+	@Override
+	public CommitInfo synchronousPut(TopicName name, byte[] key, byte[] value) {
+		int index = _indexForKey(key);
+		_inFlight[index].incrementAndGet();
+		try {
+			return _writers[index].synchronousPut(name, key, value);
+		} finally {
+			_inFlight[index].decrementAndGet();
+		}
+	}
+
+	@Override
+	public CommitInfo synchronousDelete(TopicName name, byte[] key) {
+		int index = _indexForKey(key);
+		_inFlight[index].incrementAndGet();
+		try {
+			return _writers[index].synchronousDelete(name, key);
+		} finally {
+			_inFlight[index].decrementAndGet();
+		}
+	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousCreateTopic(TopicName name, byte[] code, byte[] arguments) {
+		int index = _leastLoadedIndex();
+		_inFlight[index].incrementAndGet();
+		return _writers[index].asynchronousCreateTopic(name, code, arguments).whenComplete((CommitInfo info, Throwable error) -> _inFlight[index].decrementAndGet());
+	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousPut(TopicName name, byte[] key, byte[] value) {
+		int index = _indexForKey(key);
+		_inFlight[index].incrementAndGet();
+		return _writers[index].asynchronousPut(name, key, value).whenComplete((CommitInfo info, Throwable error) -> _inFlight[index].decrementAndGet());
+	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousDelete(TopicName name, byte[] key) {
+		int index = _indexForKey(key);
+		_inFlight[index].incrementAndGet();
+		return _writers[index].asynchronousDelete(name, key).whenComplete((CommitInfo info, Throwable error) -> _inFlight[index].decrementAndGet());
+	}
+
+
+	private int _indexForKey(byte[] key) {
+		// Spread the hash bits (as HashMap does) since short keys often differ only in their low bytes.
+		int hash = Arrays.hashCode(key);
+		hash ^= (hash >>> 16);
+		return Math.floorMod(hash, _writers.length);
+	}
+
+	private int _leastLoadedIndex() {
+		int index = 0;
+		int lowest = _inFlight[0].get();
+		for (int i = 1; i < _inFlight.length; ++i) {
+			int load = _inFlight[i].get();
+			if (load < lowest) {
+				index = i;
+				lowest = load;
+			}
+		}
+		return index;
+	}
+}
@@ -0,0 +1,18 @@
+package com.jeffdisher.membrane.store.laminar;
+
+import java.io.Closeable;
+
+
+/**
+ * Where a TopicListener receives its topic's consequences from:  normally a Laminar ListenerConnection (see
+ * ListenerManager), reduced to what the listener needs.
+ */
+public interface IConsequenceSource extends Closeable {
+	/**
+	 * Blocks until the next consequence is received.
+	 * 
+	 * @return The next consequence or null once the source has been closed.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	ReceivedConsequence pollForNextConsequence() throws InterruptedException;
+}
@@ -11,18 +11,43 @@ import com.jeffdisher.membrane.store.codecs.ICodec;
 import com.jeffdisher.membrane.store.connection.IConnectionFactory;
 import com.jeffdisher.membrane.store.connection.IReadingConnection;
 import com.jeffdisher.membrane.store.connection.IWritingConnection;
+import com.jeffdisher.membrane.store.metrics.MetricsRegistry;
 
 
 public class LaminarConnectionFactory implements IConnectionFactory {
 	private final InetSocketAddress _server;
+	private final int _maxBatchSize;
+	private final long _lingerMillis;
+	private final MetricsRegistry _metrics;
+	// All the listeners opened through this factory share the manager's workers.
+	private final ListenerManager _listeners;
 
 	public LaminarConnectionFactory(InetSocketAddress server) {
+		this(server, 1, 0L, false, new MetricsRegistry());
+	}
+
+	/**
+	 * Creates a factory whose writers group puts and deletes into batches of up to maxBatchSize, waiting up to
+	 * lingerMillis for a batch to fill (a maxBatchSize of 1 disables batching).
+	 * 
+	 * @param server The Laminar node to contact.
+	 * @param maxBatchSize The maximum number of writes to send and complete as one group.
+	 * @param lingerMillis The maximum time to wait for more writes before sending a partial group.
+	 * @param parallelDecode True if listeners should decode keys and values on all the workers, not just the one applying
+	 * them.
+	 * @param metrics The registry where the writers record their commit latency.
+	 */
+	public LaminarConnectionFactory(InetSocketAddress server, int maxBatchSize, long lingerMillis, boolean parallelDecode, MetricsRegistry metrics) {
 		_server = server;
+		_maxBatchSize = maxBatchSize;
+		_lingerMillis = lingerMillis;
+		_metrics = metrics;
+		_listeners = new ListenerManager(server, Runtime.getRuntime().availableProcessors(), parallelDecode);
 	}
 
 	@Override
-	public <K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec) throws IOException {
-		return new TopicListener<K, V>(_server, topic, shim, keyCodec, valueCodec);
+	public <K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, long previousConsequenceOffset) throws IOException {
+		return _listeners.subscribe(topic, shim, keyCodec, valueCodec, previousConsequenceOffset);
 	}
 
 	@Override
@@ -36,6 +61,6 @@ public class LaminarConnectionFactory implements IConnectionFactory {
 			// We don't use interruption.
 			throw Assert.unexpected(e);
 		}
-		return new LaminarWritingConnection(client);
+		return new LaminarWritingConnection(client, _maxBatchSize, _lingerMillis, _metrics);
 	}
 }
@@ -1,22 +1,98 @@
 package com.jeffdisher.membrane.store.laminar;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import com.jeffdisher.laminar.client.ClientConnection;
+import com.jeffdisher.laminar.client.ClientResult;
 import com.jeffdisher.laminar.types.CommitInfo;
 import com.jeffdisher.laminar.types.TopicName;
 import com.jeffdisher.laminar.utils.Assert;
 import com.jeffdisher.membrane.store.connection.IWritingConnection;
+import com.jeffdisher.membrane.store.metrics.LatencyHistogram;
+import com.jeffdisher.membrane.store.metrics.MetricsRegistry;
 
+/**
+ * Writes to a Laminar cluster over a single client connection.
+ * If created with a maximum batch size greater than 1, puts and deletes (synchronous or asynchronous) are queued and
+ * sent back-to-back by a batching thread, in groups of up to that size, waiting up to the linger time for a group to
+ * fill.  Each group is then completed together, once its last message commits.
+ */
 public class LaminarWritingConnection implements IWritingConnection {
 	private final ClientConnection _client;
+	private final int _maxBatchSize;
+	private final long _lingerNanos;
+	// Asynchronous sends are tracked here so that a single background thread can wait for their commits.
+	private final BlockingQueue<PendingCommit> _pendingCommits;
+	private final Thread _commitThread;
+	// Only used when batching:  the writes not yet sent and the thread which groups and sends them.
+	private final BlockingQueue<QueuedWrite> _outgoing;
+	private final Thread _batchThread;
+	// The time from a put or delete being requested until it commits (including any time waiting to be batched).
+	private final LatencyHistogram _commitLatency;
 
 	public LaminarWritingConnection(ClientConnection client) {
+		this(client, 1, 0L, new MetricsRegistry());
+	}
+
+	public LaminarWritingConnection(ClientConnection client, int maxBatchSize, long lingerMillis, MetricsRegistry metrics) {
+		Assert.assertTrue(maxBatchSize > 0);
+		Assert.assertTrue(lingerMillis >= 0L);
 		_client = client;
+		_maxBatchSize = maxBatchSize;
+		_lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		_commitLatency = metrics.histogram("membrane_commit_latency_seconds", "Time from a put or delete being requested until it commits.");
+		_pendingCommits = new LinkedBlockingQueue<>();
+		_commitThread = new Thread(() -> {
+			try {
+				PendingCommit pending = _pendingCommits.take();
+				// A null results list is our signal to stop.
+				while (null != pending.results) {
+					// Messages on a connection commit in order so, once the last one has committed, so have the others.
+					int last = pending.results.size() - 1;
+					pending.results.get(last).waitForCommitted();
+					for (int i = 0; i <= last; ++i) {
+						pending.futures.get(i).complete(pending.results.get(i).waitForCommitted());
+					}
+					pending = _pendingCommits.take();
+				}
+			} catch (InterruptedException e) {
+				// We don't use interruption.
+				throw Assert.unexpected(e);
+			}
+		});
+		_commitThread.start();
+		if (_maxBatchSize > 1) {
+			_outgoing = new LinkedBlockingQueue<>();
+			_batchThread = new Thread(() -> _runBatching());
+			_batchThread.start();
+		} else {
+			_outgoing = null;
+			_batchThread = null;
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
+		// Send anything still queued and let the commit thread finish waiting on anything already sent before we close
+		// the underlying connection.
+		try {
+			if (null != _batchThread) {
+				_outgoing.put(new QueuedWrite(null, null));
+				_batchThread.join();
+			}
+			_pendingCommits.put(new PendingCommit(null, null));
+			_commitThread.join();
+		} catch (InterruptedException e) {
+			// We don't use interruption.
+			throw Assert.unexpected(e);
+		}
 		_client.close();
 	}
 
@@ -32,22 +108,161 @@ public class LaminarWritingConnection implements IWritingConnection {
 
 	@Override
 	public CommitInfo synchronousPut(TopicName name, byte[] key, byte[] value) {
+		long startNanos = System.nanoTime();
+		CommitInfo info;
+		if (null != _batchThread) {
+			// When batching, synchronous calls are grouped with everything else.
+			info = _enqueue(() -> _client.sendPut(name, key, value)).join();
+		} else {
+			try {
+				info = _client.sendPut(name, key, value).waitForCommitted();
+			} catch (InterruptedException e) {
+				// We don't use interruption.
+				throw Assert.unexpected(e);
+			}
+		}
+		_commitLatency.record(System.nanoTime() - startNanos);
+		return info;
+	}
+
+	@Override
+	public CommitInfo synchronousDelete(TopicName name, byte[] key) {
+		long startNanos = System.nanoTime();
+		CommitInfo info;
+		if (null != _batchThread) {
+			// When batching, synchronous calls are grouped with everything else.
+			info = _enqueue(() -> _client.sendDelete(name, key)).join();
+		} else {
+			try {
+				info = _client.sendDelete(name, key).waitForCommitted();
+			} catch (InterruptedException e) {
+				// We don't use interruption.
+				throw Assert.unexpected(e);
+			}
+		}
+		_commitLatency.record(System.nanoTime() - startNanos);
+		return info;
+	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousCreateTopic(TopicName name, byte[] code, byte[] arguments) {
+		// Topic creation is rare so we never batch it.
+		return _sendAndTrack(() -> _client.sendCreateProgrammableTopic(name, code, arguments));
+	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousPut(TopicName name, byte[] key, byte[] value) {
+		ISender sender = () -> _client.sendPut(name, key, value);
+		long startNanos = System.nanoTime();
+		return _timeCommit(startNanos, (null != _batchThread)
+				? _enqueue(sender)
+				: _sendAndTrack(sender)
+		);
+	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousDelete(TopicName name, byte[] key) {
+		ISender sender = () -> _client.sendDelete(name, key);
+		long startNanos = System.nanoTime();
+		return _timeCommit(startNanos, (null != _batchThread)
+				? _enqueue(sender)
+				: _sendAndTrack(sender)
+		);
+	}
+
+
+	// startNanos must be taken before the future is created since, when not batching, that is when the write is sent.
+	private CompletableFuture<CommitInfo> _timeCommit(long startNanos, CompletableFuture<CommitInfo> future) {
+		// This runs on the commit thread, once the write commits.
+		future.whenComplete((CommitInfo info, Throwable error) -> _commitLatency.record(System.nanoTime() - startNanos));
+		return future;
+	}
+
+	private CompletableFuture<CommitInfo> _sendAndTrack(ISender sender) {
+		CompletableFuture<CommitInfo> future = new CompletableFuture<>();
 		try {
-			return _client.sendPut(name, key, value).waitForCommitted();
+			ClientResult result = sender.send();
+			_pendingCommits.put(new PendingCommit(Collections.singletonList(result), Collections.singletonList(future)));
 		} catch (InterruptedException e) {
 			// We don't use interruption.
 			throw Assert.unexpected(e);
 		}
+		return future;
 	}
 
-	@Override
-	public CommitInfo synchronousDelete(TopicName name, byte[] key) {
+	private CompletableFuture<CommitInfo> _enqueue(ISender sender) {
+		CompletableFuture<CommitInfo> future = new CompletableFuture<>();
 		try {
-			return _client.sendDelete(name, key).waitForCommitted();
+			_outgoing.put(new QueuedWrite(sender, future));
 		} catch (InterruptedException e) {
 			// We don't use interruption.
 			throw Assert.unexpected(e);
 		}
+		return future;
 	}
 
+	private void _runBatching() {
+		try {
+			boolean keepRunning = true;
+			while (keepRunning) {
+				// Block for the first write of the batch and then collect more until it is full or we run out of time.
+				QueuedWrite write = _outgoing.take();
+				long deadline = System.nanoTime() + _lingerNanos;
+				List<ClientResult> results = new ArrayList<>();
+				List<CompletableFuture<CommitInfo>> futures = new ArrayList<>();
+				while (null != write) {
+					if (null != write.sender) {
+						// Send immediately - we only hold back completion, not the messages themselves.
+						results.add(write.sender.send());
+						futures.add(write.future);
+					} else {
+						// A null sender is our signal to stop, once we send the writes already collected.
+						keepRunning = false;
+					}
+					if (keepRunning && (results.size() < _maxBatchSize)) {
+						long remainingNanos = deadline - System.nanoTime();
+						write = (remainingNanos > 0L)
+								? _outgoing.poll(remainingNanos, TimeUnit.NANOSECONDS)
+								: _outgoing.poll()
+						;
+					} else {
+						write = null;
+					}
+				}
+				if (!results.isEmpty()) {
+					_pendingCommits.put(new PendingCommit(results, futures));
+				}
+			}
+		} catch (InterruptedException e) {
+			// We don't use interruption.
+			throw Assert.unexpected(e);
+		}
+	}
+
+
+	private static interface ISender {
+		ClientResult send() throws InterruptedException;
+	}
+
+
+	private static class PendingCommit {
+		public final List<ClientResult> results;
+		public final List<CompletableFuture<CommitInfo>> futures;
+		
+		public PendingCommit(List<ClientResult> results, List<CompletableFuture<CommitInfo>> futures) {
+			this.results = results;
+			this.futures = futures;
+		}
+	}
+
+
+	private static class QueuedWrite {
+		public final ISender sender;
+		public final CompletableFuture<CommitInfo> future;
+		
+		public QueuedWrite(ISender sender, CompletableFuture<CommitInfo> future) {
+			this.sender = sender;
+			this.future = future;
+		}
+	}
 }
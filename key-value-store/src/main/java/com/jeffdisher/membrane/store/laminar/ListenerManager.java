@@ -0,0 +1,226 @@
+package com.jeffdisher.membrane.store.laminar;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.jeffdisher.laminar.client.ListenerConnection;
+import com.jeffdisher.laminar.types.Consequence;
+import com.jeffdisher.laminar.types.TopicName;
+import com.jeffdisher.laminar.utils.Assert;
+import com.jeffdisher.membrane.store.IListenerTopicShim;
+import com.jeffdisher.membrane.store.codecs.ICodec;
+import com.jeffdisher.membrane.store.connection.IReadingConnection;
+
+
+/**
+ * Services the listeners of all the topics opened through a factory, applying their consequences on a small fixed pool
+ * of worker threads instead of a dedicated thread per topic.
+ * Topics with pending consequences wait in a single FIFO queue for a worker, which applies at most a quantum of them
+ * before putting the topic back at the end of the queue, so one busy topic can't starve the others.  A topic is only
+ * ever in the queue once, so its consequences are still applied in order, by one worker at a time.
+ * Only the work is bounded this way, not the connections:  the Laminar client only offers a blocking poll, for one
+ * topic per connection, so each topic still has its own ListenerConnection (one socket) and a poller blocked waiting
+ * for its next consequence.  The pollers only hand consequences to the workers, never applying them.  When the JVM
+ * supports them (Java 21+), they are virtual threads, which don't hold a platform thread while blocked, so there are
+ * workerCount platform threads however many topics there are.  On older JVMs, each poller is a platform thread (with a
+ * small stack) so there are workerCount platform threads plus one per topic.
+ * The workers are started with the first listener and stopped when the last one closes.
+ * With parallel decode enabled, the workers also decode each topic's keys and values as they arrive (see TopicListener)
+ * so that catching up on a large topic isn't limited to the one core applying its consequences (each topic has at most
+ * workerCount decode tasks queued at once, so they can't crowd out the other topics either).
+ */
+public class ListenerManager {
+	/**
+	 * The most consequences one topic may apply before yielding its worker to the next waiting topic (consecutive puts
+	 * and deletes within a quantum are applied as one batch).
+	 */
+	public static final int QUANTUM = 256;
+	// The platform thread fallback only ever blocks in the poll so it doesn't need a large stack.
+	private static final long POLLER_STACK_SIZE = 256 * 1024L;
+	// Null when the JVM doesn't have virtual threads.
+	private static final Method START_VIRTUAL_THREAD = _findStartVirtualThread();
+	private static final Runnable STOP = () -> {};
+
+	private final ISourceOpener _sourceOpener;
+	private final int _workerCount;
+	private final boolean _parallelDecode;
+	private final BlockingQueue<Runnable> _ready;
+	// The lock protects the subscription count and the worker list (which is only non-null while there are listeners).
+	private final Object _lock;
+	private int _subscriptionCount;
+	private List<Thread> _workers;
+
+	public ListenerManager(InetSocketAddress server, int workerCount, boolean parallelDecode) {
+		this((TopicName topic, long previousConsequenceOffset) -> new LaminarSource(ListenerConnection.open(server, topic, previousConsequenceOffset)), workerCount, parallelDecode);
+	}
+
+	/**
+	 * Creates a manager whose listeners receive their consequences from the sources opened by the given opener (so they
+	 * can come from somewhere other than Laminar).
+	 */
+	public ListenerManager(ISourceOpener sourceOpener, int workerCount, boolean parallelDecode) {
+		Assert.assertTrue(workerCount > 0);
+		_sourceOpener = sourceOpener;
+		_workerCount = workerCount;
+		_parallelDecode = parallelDecode;
+		_ready = new LinkedBlockingQueue<>();
+		_lock = new Object();
+		_subscriptionCount = 0;
+		_workers = null;
+	}
+
+	/**
+	 * Opens a listener which will send the consequences of the given topic, after previousConsequenceOffset, to the
+	 * given shim, on one of this manager's workers.
+	 */
+	public <K, V> IReadingConnection subscribe(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, long previousConsequenceOffset) throws IOException {
+		synchronized (_lock) {
+			if (0 == _subscriptionCount) {
+				_workers = new ArrayList<>();
+				for (int i = 0; i < _workerCount; ++i) {
+					Thread worker = new Thread(() -> _runWorker(), "Listener worker " + i);
+					worker.start();
+					_workers.add(worker);
+				}
+			}
+			_subscriptionCount += 1;
+		}
+		IConsequenceSource source;
+		try {
+			source = _sourceOpener.open(topic, previousConsequenceOffset);
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+		return new TopicListener<>(this, source, topic, shim, keyCodec, valueCodec, _parallelDecode);
+	}
+
+	public int getWorkerCount() {
+		return _workerCount;
+	}
+
+	/**
+	 * Called by a TopicListener to queue a task for a worker:  either its apply task, when it has pending consequences
+	 * (the listener must ensure this isn't already queued or running), or the decoding of one consequence.
+	 */
+	public void schedule(Runnable task) {
+		_ready.add(task);
+	}
+
+	/**
+	 * Called by a TopicListener to start the thread which polls for its consequences.
+	 */
+	public Thread startPoller(Runnable poller, String name) {
+		Thread thread;
+		if (null != START_VIRTUAL_THREAD) {
+			try {
+				thread = (Thread) START_VIRTUAL_THREAD.invoke(null, poller);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				// This is a public static method so neither of these should happen.
+				throw Assert.unexpected(e);
+			}
+		} else {
+			thread = new Thread(null, poller, name, POLLER_STACK_SIZE);
+			thread.start();
+		}
+		return thread;
+	}
+
+	/**
+	 * Called by a TopicListener once it is closed and none of its tasks are queued, stopping the workers if it was the
+	 * last one.
+	 */
+	public void release() {
+		List<Thread> toStop = null;
+		synchronized (_lock) {
+			Assert.assertTrue(_subscriptionCount > 0);
+			_subscriptionCount -= 1;
+			if (0 == _subscriptionCount) {
+				toStop = _workers;
+				_workers = null;
+				for (int i = 0; i < toStop.size(); ++i) {
+					_ready.add(STOP);
+				}
+			}
+		}
+		if (null != toStop) {
+			try {
+				for (Thread worker : toStop) {
+					worker.join();
+				}
+			} catch (InterruptedException e) {
+				// We don't use interruption.
+				throw Assert.unexpected(e);
+			}
+		}
+	}
+
+
+	private void _runWorker() {
+		try {
+			Runnable task = _ready.take();
+			while (STOP != task) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// The listener's tasks handle their own failures (see TopicListener) so this is only a backstop:
+					// one bad task must never take away a worker which all the other topics share.
+					e.printStackTrace();
+				}
+				task = _ready.take();
+			}
+		} catch (InterruptedException e) {
+			// We don't use interruption.
+			throw Assert.unexpected(e);
+		}
+	}
+
+	private static Method _findStartVirtualThread() {
+		// We build for Java 8 so we can only find this reflectively.
+		Method method;
+		try {
+			method = Thread.class.getMethod("startVirtualThread", Runnable.class);
+		} catch (NoSuchMethodException e) {
+			// Older JVM so we will use platform threads.
+			method = null;
+		}
+		return method;
+	}
+
+
+	/**
+	 * Opens the source of a topic's consequences, after previousConsequenceOffset.
+	 */
+	public static interface ISourceOpener {
+		IConsequenceSource open(TopicName topic, long previousConsequenceOffset) throws IOException;
+	}
+
+
+	private static class LaminarSource implements IConsequenceSource {
+		private final ListenerConnection _listener;
+		
+		public LaminarSource(ListenerConnection listener) {
+			_listener = listener;
+		}
+		
+		@Override
+		public ReceivedConsequence pollForNextConsequence() throws InterruptedException {
+			Consequence consequence = _listener.pollForNextConsequence();
+			return (null != consequence)
+					? ReceivedConsequence.fromLaminar(consequence)
+					: null
+			;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			_listener.close();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.jeffdisher.membrane.store.laminar;
+
+import com.jeffdisher.laminar.types.Consequence;
+import com.jeffdisher.laminar.types.payload.Payload_KeyDelete;
+import com.jeffdisher.laminar.types.payload.Payload_KeyPut;
+
+
+/**
+ * A consequence received by a topic's listener, reduced to what it needs:  the type, the offsets, and the raw key and
+ * value of a put or delete.
+ */
+public class ReceivedConsequence {
+	public static ReceivedConsequence fromLaminar(Consequence consequence) {
+		ReceivedConsequence received;
+		switch (consequence.type) {
+		case KEY_DELETE:
+			received = delete(consequence.intentionOffset, consequence.consequenceOffset, ((Payload_KeyDelete)consequence.payload).key);
+			break;
+		case KEY_PUT: {
+			Payload_KeyPut payload = (Payload_KeyPut)consequence.payload;
+			received = put(consequence.intentionOffset, consequence.consequenceOffset, payload.key, payload.value);
+		}
+			break;
+		default:
+			received = other(consequence.type, consequence.intentionOffset, consequence.consequenceOffset);
+			break;
+		}
+		return received;
+	}
+
+	public static ReceivedConsequence put(long intentionOffset, long consequenceOffset, byte[] key, byte[] value) {
+		return new ReceivedConsequence(Consequence.Type.KEY_PUT, intentionOffset, consequenceOffset, key, value);
+	}
+
+	public static ReceivedConsequence delete(long intentionOffset, long consequenceOffset, byte[] key) {
+		return new ReceivedConsequence(Consequence.Type.KEY_DELETE, intentionOffset, consequenceOffset, key, null);
+	}
+
+	/**
+	 * @return A consequence with no key or value (the creation or destruction of the topic, or a config change).
+	 */
+	public static ReceivedConsequence other(Consequence.Type type, long intentionOffset, long consequenceOffset) {
+		return new ReceivedConsequence(type, intentionOffset, consequenceOffset, null, null);
+	}
+
+	public final Consequence.Type type;
+	public final long intentionOffset;
+	public final long consequenceOffset;
+	// Null unless this is a put or delete.
+	public final byte[] key;
+	// Null unless this is a put.
+	public final byte[] value;
+
+	private ReceivedConsequence(Consequence.Type type, long intentionOffset, long consequenceOffset, byte[] key, byte[] value) {
+		this.type = type;
+		this.intentionOffset = intentionOffset;
+		this.consequenceOffset = consequenceOffset;
+		this.key = key;
+		this.value = value;
+	}
+}
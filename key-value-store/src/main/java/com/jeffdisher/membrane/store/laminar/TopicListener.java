@@ -1,90 +1,273 @@
 package com.jeffdisher.membrane.store.laminar;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.jeffdisher.laminar.client.ListenerConnection;
 import com.jeffdisher.laminar.types.Consequence;
 import com.jeffdisher.laminar.types.TopicName;
-import com.jeffdisher.laminar.types.payload.Payload_KeyDelete;
-import com.jeffdisher.laminar.types.payload.Payload_KeyPut;
 import com.jeffdisher.laminar.utils.Assert;
 import com.jeffdisher.membrane.store.IListenerTopicShim;
+import com.jeffdisher.membrane.store.KeyChange;
 import com.jeffdisher.membrane.store.codecs.ICodec;
 import com.jeffdisher.membrane.store.connection.IReadingConnection;
 
 
+/**
+ * Listens to one topic:  a poller thread receives its consequences from its source into a bounded queue and the ListenerManager's
+ * workers apply them to the shim (see ListenerManager for how they are scheduled), batching runs of puts and deletes.
+ * With parallel decode, the keys and values of each consequence are decoded by any of the workers, as soon as it is
+ * received, and the bounded queue becomes a reorder buffer:  the apply task only takes consequences from its head, once
+ * they are decoded, so they are still applied in order.  A topic only has as many decode tasks waiting for the workers as
+ * there are workers (the poller waits for one to finish before scheduling another) so a topic which is catching up can't
+ * put a long run of them ahead of the other topics' apply tasks.
+ * If applying a consequence fails, the topic is marked as failed:  the error is reported, nothing more is applied, and
+ * the rest of its consequences are dropped as they arrive (the workers are shared so they carry on with other topics).
+ */
 public class TopicListener<K, V> implements IReadingConnection {
+	// If the workers fall this far behind, the poller stops receiving until they catch up (this also bounds how many
+	// decoded values can be waiting in the reorder buffer).
+	private static final int MAX_PENDING = 1024;
+
+	private final ListenerManager _manager;
 	private final TopicName _topic;
 	private final IListenerTopicShim<K, V> _shim;
 	private final ICodec<K> _keyCodec;
 	private final ICodec<V> _valueCodec;
+	private final boolean _parallelDecode;
 
-	private final ListenerConnection _listener;
-	private final Thread _listenerThread;
+	private final IConsequenceSource _source;
+	private final BlockingQueue<PendingConsequence<K, V>> _pending;
+	// Set while the apply task is queued or running so that it is only ever scheduled once.
+	private final AtomicBoolean _isScheduled;
+	// With parallel decode, the poller takes a permit for each decode task it schedules, which returns it when done.
+	private final Semaphore _decodePermits;
+	private final Runnable _applyTask;
+	private volatile boolean _isPollerDone;
+	// Set by the apply task if it fails, after which nothing more is applied.
+	private volatile RuntimeException _failure;
+	// Counted down by the apply task once the poller is done and everything it received has been applied, or it failed.
+	private final CountDownLatch _finished;
+	private final Thread _pollerThread;
 
-	public TopicListener(InetSocketAddress server, TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec) throws IOException {
+	public TopicListener(ListenerManager manager, IConsequenceSource source, TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, boolean parallelDecode) {
+		_manager = manager;
 		_topic = topic;
 		_shim = shim;
 		_keyCodec = keyCodec;
 		_valueCodec = valueCodec;
-		
-		_listener = ListenerConnection.open(server, _topic, 0L);
-		_listenerThread = new Thread(() -> {
+		_parallelDecode = parallelDecode;
+
+		_source = source;
+		_pending = new LinkedBlockingQueue<>(MAX_PENDING);
+		_isScheduled = new AtomicBoolean(false);
+		_decodePermits = new Semaphore(_manager.getWorkerCount());
+		_applyTask = () -> _applyPending();
+		_isPollerDone = false;
+		_failure = null;
+		_finished = new CountDownLatch(1);
+		_pollerThread = _manager.startPoller(() -> {
 			try {
-				Consequence consequence = _listener.pollForNextConsequence();
+				ReceivedConsequence consequence = _source.pollForNextConsequence();
 				while (null != consequence) {
-					switch (consequence.type) {
-					case CONFIG_CHANGE:
-						// Ignore.
-						break;
-					case INVALID:
-						throw Assert.unreachable("INVALID consequence");
-					case KEY_DELETE: {
-						// Decode the key.
-						K key = _keyCodec.deserialize(((Payload_KeyDelete)consequence.payload).key);
-						// Pass the command to the shim.
-						_shim.delete(key, consequence.intentionOffset);
-					}
-						break;
-					case KEY_PUT: {
-						// Decode the key and value.
-						Payload_KeyPut payload = (Payload_KeyPut)consequence.payload;
-						K key = _keyCodec.deserialize(payload.key);
-						V value = _valueCodec.deserialize(payload.value);
-						// Pass the command to the shim.
-						_shim.put(key, value, consequence.intentionOffset);
-					}
-						break;
-					case TOPIC_CREATE:
-						// Pass the command to the shim.
-						_shim.create(consequence.intentionOffset);
-						break;
-					case TOPIC_DESTROY:
-						// Pass the command to the shim.
-						_shim.destroy(consequence.intentionOffset);
-						break;
-					default:
-						throw Assert.unreachable("Unknown consequence type");
+					// Once we have failed, nothing more will be applied so we just keep receiving until we are closed.
+					if (null == _failure) {
+						_receive(consequence);
 					}
-					consequence = _listener.pollForNextConsequence();
+					consequence = _source.pollForNextConsequence();
 				}
 			} catch (InterruptedException e) {
 				// We don't use interruption.
 				throw Assert.unexpected(e);
 			}
-		});
-		_listenerThread.start();
+			// Schedule one last time so the apply task sees we are done, even if nothing is pending.
+			_isPollerDone = true;
+			_scheduleIfIdle();
+		}, "Listener " + _topic.string);
 	}
 
 	@Override
 	public void close() throws IOException {
-		_listener.close();
+		_source.close();
 		try {
-			_listenerThread.join();
+			_pollerThread.join();
+			// Everything received before the close is still applied, as it always was.
+			_finished.await();
 		} catch (InterruptedException e) {
 			// We don't use interruption.
 			throw Assert.unexpected(e);
 		}
+		_manager.release();
+	}
+
+
+	private void _receive(ReceivedConsequence consequence) throws InterruptedException {
+		PendingConsequence<K, V> pending = new PendingConsequence<>(consequence);
+		boolean needsDecode = (Consequence.Type.KEY_PUT == consequence.type) || (Consequence.Type.KEY_DELETE == consequence.type);
+		if (_parallelDecode && needsDecode) {
+			// This must be in the buffer before it is decoded so that it keeps its place.
+			_pending.put(pending);
+			_decodePermits.acquire();
+			_manager.schedule(() -> {
+				_decode(pending);
+				pending.isReady = true;
+				_decodePermits.release();
+				_scheduleIfIdle();
+			});
+		} else {
+			// Anything else is ready as it is (the apply task decodes it, if needed).
+			pending.isReady = true;
+			_pending.put(pending);
+			_scheduleIfIdle();
+		}
+	}
+
+	private void _scheduleIfIdle() {
+		if (_isScheduled.compareAndSet(false, true)) {
+			_manager.schedule(_applyTask);
+		}
+	}
+
+	private void _applyPending() {
+		try {
+			_applyQuantum();
+		} catch (RuntimeException e) {
+			// We leave ourselves marked as scheduled so we are never run again.
+			System.err.println("Listener for topic \"" + _topic.string + "\" failed so it will apply nothing more:");
+			e.printStackTrace();
+			_failure = e;
+			// The poller could be blocked on a full buffer so we empty it (it won't add more once it sees the failure).
+			_pending.clear();
+			_finished.countDown();
+		}
+	}
+
+	private void _applyQuantum() {
+		// Called on a worker:  apply up to a quantum and then give the worker back (rescheduling if there is more).
+		// Consecutive puts and deletes are collected into a batch so the store applies them under one lock acquisition.
+		List<KeyChange<K, V>> batch = new ArrayList<>();
+		long batchConsequenceOffset = 0L;
+		int applied = 0;
+		PendingConsequence<K, V> pending = _pollReady();
+		while (null != pending) {
+			ReceivedConsequence consequence = pending.consequence;
+			if (!pending.isDecoded) {
+				_decode(pending);
+			}
+			if (null != pending.decodeFailure) {
+				// Everything before this is still applied.
+				_flushBatch(batch, batchConsequenceOffset);
+				throw pending.decodeFailure;
+			}
+			switch (consequence.type) {
+			case CONFIG_CHANGE:
+				// Ignore.
+				break;
+			case INVALID:
+				throw Assert.unreachable("INVALID consequence");
+			case KEY_DELETE:
+				batch.add(KeyChange.delete(pending.key, consequence.intentionOffset));
+				batchConsequenceOffset = consequence.consequenceOffset;
+				break;
+			case KEY_PUT:
+				batch.add(KeyChange.put(pending.key, pending.value, consequence.intentionOffset));
+				batchConsequenceOffset = consequence.consequenceOffset;
+				break;
+			case TOPIC_CREATE:
+				// The batch must be applied first since it came before this.
+				_flushBatch(batch, batchConsequenceOffset);
+				_shim.create(consequence.intentionOffset);
+				_shim.checkpoint(consequence.consequenceOffset);
+				break;
+			case TOPIC_DESTROY:
+				_flushBatch(batch, batchConsequenceOffset);
+				_shim.destroy(consequence.intentionOffset);
+				_shim.checkpoint(consequence.consequenceOffset);
+				break;
+			default:
+				throw Assert.unreachable("Unknown consequence type");
+			}
+			applied += 1;
+			pending = (applied < ListenerManager.QUANTUM)
+					? _pollReady()
+					: null
+			;
+		}
+		_flushBatch(batch, batchConsequenceOffset);
+		if (_isPollerDone && _pending.isEmpty()) {
+			// We leave ourselves marked as scheduled since there will never be anything more to do.
+			_finished.countDown();
+		} else {
+			_isScheduled.set(false);
+			// Anything which became ready (or the poller finishing) after the checks above may have found us still
+			// scheduled so we must check again.  We don't reschedule for a head which is still being decoded since its
+			// decode task will schedule us when it is done.
+			PendingConsequence<K, V> head = _pending.peek();
+			boolean isHeadReady = (null != head) && head.isReady;
+			if (isHeadReady || (_isPollerDone && (null == head))) {
+				_scheduleIfIdle();
+			}
+		}
+	}
+
+	private PendingConsequence<K, V> _pollReady() {
+		// Only the apply task removes from the buffer so the head can't change between the peek and the poll.
+		PendingConsequence<K, V> head = _pending.peek();
+		return ((null != head) && head.isReady)
+				? _pending.poll()
+				: null
+		;
+	}
+
+	private void _decode(PendingConsequence<K, V> pending) {
+		// This may be on a different worker than the apply task so a failure is left for the apply task to act on.
+		try {
+			switch (pending.consequence.type) {
+			case KEY_DELETE:
+				pending.key = _keyCodec.deserialize(pending.consequence.key);
+				break;
+			case KEY_PUT:
+				pending.key = _keyCodec.deserialize(pending.consequence.key);
+				pending.value = _valueCodec.deserialize(pending.consequence.value);
+				break;
+			default:
+				// Nothing else has anything to decode.
+				break;
+			}
+		} catch (RuntimeException e) {
+			pending.decodeFailure = e;
+		}
+		pending.isDecoded = true;
+	}
+
+	private void _flushBatch(List<KeyChange<K, V>> batch, long lastConsequenceOffset) {
+		if (!batch.isEmpty()) {
+			_shim.applyBatch(batch, lastConsequenceOffset);
+			batch.clear();
+		}
+	}
+
+
+	/**
+	 * A slot in the reorder buffer.  The decoded fields (or the failure) are written before isReady is set (by whichever
+	 * thread decodes them) and only read by the apply task after it sees isReady.
+	 */
+	private static class PendingConsequence<K, V> {
+		public final ReceivedConsequence consequence;
+		public K key;
+		public V value;
+		public boolean isDecoded;
+		// Set instead of the decoded fields if decoding failed.
+		public RuntimeException decodeFailure;
+		public volatile boolean isReady;
+		
+		public PendingConsequence(ReceivedConsequence consequence) {
+			this.consequence = consequence;
+		}
 	}
 }
@@ -2,6 +2,7 @@ package com.jeffdisher.membrane.store.local;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -19,7 +20,8 @@ public class LocalFactory implements IConnectionFactory {
 	private final AtomicLong _intentionOffset = new AtomicLong(1L);
 
 	@Override
-	public <K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec) throws IOException {
+	public <K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, long previousConsequenceOffset) throws IOException {
+		// We have no history to replay so the previous offset doesn't matter.
 		_data.putIfAbsent(topic, new TopicData<>(shim, keyCodec, valueCodec));
 		
 		return new IReadingConnection() {
@@ -69,6 +71,19 @@ public class LocalFactory implements IConnectionFactory {
 				}
 				return CommitInfo.create(effect, intentionOffset);
 			}
+			// Everything is committed as soon as it is sent so the asynchronous variants are already complete.
+			@Override
+			public CompletableFuture<CommitInfo> asynchronousCreateTopic(TopicName name, byte[] code, byte[] arguments) {
+				return CompletableFuture.completedFuture(synchronousCreateTopic(name, code, arguments));
+			}
+			@Override
+			public CompletableFuture<CommitInfo> asynchronousPut(TopicName name, byte[] key, byte[] value) {
+				return CompletableFuture.completedFuture(synchronousPut(name, key, value));
+			}
+			@Override
+			public CompletableFuture<CommitInfo> asynchronousDelete(TopicName name, byte[] key) {
+				return CompletableFuture.completedFuture(synchronousDelete(name, key));
+			}
 		};
 	}
 
@@ -86,10 +101,14 @@ public class LocalFactory implements IConnectionFactory {
 		
 		public void put(byte[] key, byte[] value, long intentionOffset) {
 			_shim.put(_keyCodec.deserialize(key), _valueCodec.deserialize(value), intentionOffset);
+			// We have no per-topic offsets so just use the intention offset.
+			_shim.checkpoint(intentionOffset);
 		}
 		
 		public void delete(byte[] key, long intentionOffset) {
 			_shim.delete(_keyCodec.deserialize(key), intentionOffset);
+			// We have no per-topic offsets so just use the intention offset.
+			_shim.checkpoint(intentionOffset);
 		}
 	}
 }
@@ -0,0 +1,27 @@
+package com.jeffdisher.membrane.store.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A monotonically increasing count which many threads can update without contending on a single variable.
+ */
+public class Counter {
+	private final LongAdder _count;
+
+	public Counter() {
+		_count = new LongAdder();
+	}
+
+	public void increment() {
+		_count.increment();
+	}
+
+	public void add(long amount) {
+		_count.add(amount);
+	}
+
+	public long get() {
+		return _count.sum();
+	}
+}
@@ -0,0 +1,59 @@
+package com.jeffdisher.membrane.store.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts durations into buckets whose upper bounds are powers of 2 microseconds (1us up to about 16s, plus an overflow
+ * bucket), so recording is just a bit count and an uncontended add.
+ */
+public class LatencyHistogram {
+	/**
+	 * The number of bounded buckets:  bucket i holds durations of at most 2^i microseconds.
+	 */
+	public static final int BUCKET_COUNT = 25;
+
+	private final LongAdder[] _buckets;
+	private final LongAdder _sumNanos;
+
+	public LatencyHistogram() {
+		// The extra bucket is for everything beyond the last bound.
+		_buckets = new LongAdder[BUCKET_COUNT + 1];
+		for (int i = 0; i < _buckets.length; ++i) {
+			_buckets[i] = new LongAdder();
+		}
+		_sumNanos = new LongAdder();
+	}
+
+	public void record(long nanos) {
+		// We round up so that every duration is within its bucket's bound (written to not overflow near Long.MAX_VALUE).
+		long micros = (nanos / 1_000L) + ((0L != (nanos % 1_000L)) ? 1L : 0L);
+		// This is the ceiling of log2(micros), so durations on a bound land in that bound's bucket.
+		int index = (micros <= 1L)
+				? 0
+				: Math.min(BUCKET_COUNT, 64 - Long.numberOfLeadingZeros(micros - 1L))
+		;
+		_buckets[index].increment();
+		_sumNanos.add(nanos);
+	}
+
+	/**
+	 * @param index The bucket index (BUCKET_COUNT is the overflow bucket).
+	 * @return The number of durations recorded in that bucket alone (not cumulative).
+	 */
+	public long getBucket(int index) {
+		return _buckets[index].sum();
+	}
+
+	/**
+	 * @param index The bucket index (less than BUCKET_COUNT).
+	 * @return The upper bound of the bucket, in seconds.
+	 */
+	public static double getBucketBoundSeconds(int index) {
+		return (double)(1L << index) / 1_000_000.0;
+	}
+
+	public long getSumNanos() {
+		return _sumNanos.sum();
+	}
+}
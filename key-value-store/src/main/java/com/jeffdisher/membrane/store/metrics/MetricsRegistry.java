@@ -0,0 +1,143 @@
+package com.jeffdisher.membrane.store.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+import com.jeffdisher.laminar.utils.Assert;
+
+
+/**
+ * The named counters, histograms, and gauges of a process, which can be written out in the Prometheus text format.
+ * Metrics are identified by their name and labels (given as alternating label names and values) and asking for the same
+ * one again returns the existing instance, so independent components (like the connections of a pool) can share it.
+ * Registration and writing are synchronized but the metrics themselves are updated without locks.
+ */
+public class MetricsRegistry {
+	private static final String TYPE_COUNTER = "counter";
+	private static final String TYPE_HISTOGRAM = "histogram";
+	private static final String TYPE_GAUGE = "gauge";
+
+	private final Map<String, Family> _families;
+
+	public MetricsRegistry() {
+		_families = new TreeMap<>();
+	}
+
+	public synchronized Counter counter(String name, String help, String... labels) {
+		Family family = _getFamily(name, help, TYPE_COUNTER);
+		return (Counter) family.series.computeIfAbsent(_labelString(labels), (String ignored) -> new Counter());
+	}
+
+	public synchronized LatencyHistogram histogram(String name, String help, String... labels) {
+		Family family = _getFamily(name, help, TYPE_HISTOGRAM);
+		return (LatencyHistogram) family.series.computeIfAbsent(_labelString(labels), (String ignored) -> new LatencyHistogram());
+	}
+
+	/**
+	 * Registers a gauge whose value is read from the given supplier whenever the metrics are written (replacing any
+	 * existing gauge with the same name and labels).
+	 */
+	public synchronized void gauge(String name, String help, LongSupplier supplier, String... labels) {
+		Family family = _getFamily(name, help, TYPE_GAUGE);
+		family.series.put(_labelString(labels), supplier);
+	}
+
+	public synchronized void writePrometheus(StringBuilder out) {
+		for (Map.Entry<String, Family> entry : _families.entrySet()) {
+			String name = entry.getKey();
+			Family family = entry.getValue();
+			out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+			out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+			for (Map.Entry<String, Object> series : family.series.entrySet()) {
+				String labels = series.getKey();
+				Object metric = series.getValue();
+				if (TYPE_COUNTER == family.type) {
+					_writeSample(out, name, labels, null, ((Counter) metric).get());
+				} else if (TYPE_GAUGE == family.type) {
+					_writeSample(out, name, labels, null, ((LongSupplier) metric).getAsLong());
+				} else {
+					LatencyHistogram histogram = (LatencyHistogram) metric;
+					long cumulative = 0L;
+					for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; ++i) {
+						cumulative += histogram.getBucket(i);
+						_writeSample(out, name + "_bucket", labels, "le=\"" + LatencyHistogram.getBucketBoundSeconds(i) + "\"", cumulative);
+					}
+					cumulative += histogram.getBucket(LatencyHistogram.BUCKET_COUNT);
+					_writeSample(out, name + "_bucket", labels, "le=\"+Inf\"", cumulative);
+					out.append(name).append("_sum");
+					_appendLabels(out, labels, null);
+					out.append(' ').append((double) histogram.getSumNanos() / 1_000_000_000.0).append('\n');
+					_writeSample(out, name + "_count", labels, null, cumulative);
+				}
+			}
+		}
+	}
+
+
+	private Family _getFamily(String name, String help, String type) {
+		Family family = _families.computeIfAbsent(name, (String ignored) -> new Family(help, type));
+		// We don't handle this error - it is just incorrect usage.
+		Assert.assertTrue(type == family.type);
+		return family;
+	}
+
+	private static String _labelString(String[] labels) {
+		Assert.assertTrue(0 == (labels.length % 2));
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(labels[i]).append("=\"");
+			String value = labels[i + 1];
+			for (int j = 0; j < value.length(); ++j) {
+				char c = value.charAt(j);
+				if ('\n' == c) {
+					builder.append("\\n");
+				} else {
+					if (('\\' == c) || ('"' == c)) {
+						builder.append('\\');
+					}
+					builder.append(c);
+				}
+			}
+			builder.append('"');
+		}
+		return builder.toString();
+	}
+
+	private static void _writeSample(StringBuilder out, String name, String labels, String extraLabel, long value) {
+		out.append(name);
+		_appendLabels(out, labels, extraLabel);
+		out.append(' ').append(value).append('\n');
+	}
+
+	private static void _appendLabels(StringBuilder out, String labels, String extraLabel) {
+		boolean hasLabels = !labels.isEmpty();
+		if (hasLabels || (null != extraLabel)) {
+			out.append('{').append(labels);
+			if (null != extraLabel) {
+				if (hasLabels) {
+					out.append(',');
+				}
+				out.append(extraLabel);
+			}
+			out.append('}');
+		}
+	}
+
+
+	private static class Family {
+		public final String help;
+		public final String type;
+		// Keyed by the rendered labels, sorted so the output is stable.
+		public final Map<String, Object> series;
+		
+		public Family(String help, String type) {
+			this.help = help;
+			this.type = type;
+			this.series = new TreeMap<>();
+		}
+	}
+}
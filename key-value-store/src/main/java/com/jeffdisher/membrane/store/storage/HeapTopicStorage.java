@@ -0,0 +1,74 @@
+package com.jeffdisher.membrane.store.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jeffdisher.membrane.store.codecs.ICodec;
+
+
+/**
+ * The default storage:  decoded values (with their change offsets) in a concurrent map on the heap.
+ */
+public class HeapTopicStorage<K, V> implements ITopicStorage<K, V, V> {
+	private final ICodec<V> _valueCodec;
+	private final Map<K, Versioned<V>> _map;
+
+	public HeapTopicStorage(ICodec<V> valueCodec) {
+		_valueCodec = valueCodec;
+		_map = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public ICodec<V> getStoredCodec() {
+		return _valueCodec;
+	}
+
+	@Override
+	public V get(Object key) {
+		Versioned<V> versioned = _map.get(key);
+		return (null != versioned)
+				? versioned.value
+				: null
+		;
+	}
+
+	@Override
+	public Versioned<V> getVersioned(Object key) {
+		return _map.get(key);
+	}
+
+	@Override
+	public V decode(V stored) {
+		return stored;
+	}
+
+	@Override
+	public void put(K key, V stored, long changeOffset) {
+		_map.put(key, new Versioned<>(stored, changeOffset));
+	}
+
+	@Override
+	public void remove(K key) {
+		_map.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		_map.clear();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return _map.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return _map.size();
+	}
+
+	@Override
+	public void forEachStored(IStoredConsumer<K, V> consumer) {
+		_map.forEach((K key, Versioned<V> versioned) -> consumer.accept(key, versioned.value, versioned.changeOffset));
+	}
+}
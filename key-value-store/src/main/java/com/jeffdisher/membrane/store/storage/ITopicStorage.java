@@ -0,0 +1,56 @@
+package com.jeffdisher.membrane.store.storage;
+
+import com.jeffdisher.membrane.store.codecs.ICodec;
+
+
+/**
+ * The storage for the materialized key-value pairs of a single topic.
+ * Values are stored in the form S (which the listener produces from the raw bytes, using getStoredCodec()) and read
+ * back as V, so an implementation can choose how much decoding happens before the value is stored.
+ * Implementations must allow one thread to modify them (the listener, always holding the topic lock) while any number
+ * of other threads concurrently call get().
+ * Each value is stored with the intention offset of the change which set it, so readers can tell if it has changed.
+ */
+public interface ITopicStorage<K, S, V> {
+	/**
+	 * @return The codec the listener should use to turn raw value bytes into the stored form (and the snapshot uses to
+	 * turn them back).
+	 */
+	ICodec<S> getStoredCodec();
+
+	V get(Object key);
+
+	/**
+	 * @return The value and the offset of the change which set it (read atomically), or null if there is no value.
+	 */
+	Versioned<V> getVersioned(Object key);
+
+	/**
+	 * @return The value the given stored form reads back as (the stored form is not modified).
+	 */
+	V decode(S stored);
+
+	void put(K key, S stored, long changeOffset);
+
+	void remove(K key);
+
+	void clear();
+
+	boolean isEmpty();
+
+	/**
+	 * @return The number of keys currently stored (only an estimate while the listener is modifying the storage).
+	 */
+	int size();
+
+	/**
+	 * Passes every key and stored value (with the offset of the change which set it) to the given consumer.  This is
+	 * weakly consistent:  changes made concurrently may or may not be seen.
+	 */
+	void forEachStored(IStoredConsumer<K, S> consumer);
+
+
+	public static interface IStoredConsumer<K, S> {
+		void accept(K key, S stored, long changeOffset);
+	}
+}
@@ -0,0 +1,274 @@
+package com.jeffdisher.membrane.store.storage;
+
+import java.util.concurrent.locks.StampedLock;
+
+import com.jeffdisher.membrane.store.codecs.ByteArrayCodec;
+import com.jeffdisher.membrane.store.codecs.ICodec;
+import com.jeffdisher.membrane.store.codecs.IntegerCodec;
+
+
+/**
+ * Storage specialized for integer values:  an open-addressing (linear probing) table of keys with parallel arrays of
+ * primitive values and change offsets, so nothing is boxed when stored and there is no per-entry object beyond the key.
+ * The listener passes the raw bytes, which are decoded directly to the primitive.
+ * Like OffHeapTopicStorage, modifications take the write side of a StampedLock and readers probe optimistically,
+ * retrying under the read lock if a modification happened while they were reading.
+ */
+public class IntegerTopicStorage<K> implements ITopicStorage<K, byte[], Integer> {
+	private static final ByteArrayCodec RAW_CODEC = new ByteArrayCodec();
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final StampedLock _lock;
+	// The table is replaced when it grows so optimistic readers always see matching key, value, and offset arrays.
+	private volatile Table _table;
+	private int _size;
+
+	public IntegerTopicStorage() {
+		_lock = new StampedLock();
+		_table = new Table(INITIAL_CAPACITY);
+		_size = 0;
+	}
+
+	@Override
+	public ICodec<byte[]> getStoredCodec() {
+		return RAW_CODEC;
+	}
+
+	@Override
+	public Integer get(Object key) {
+		long stamp = _lock.tryOptimisticRead();
+		Table table = _table;
+		int index = _find(table, key);
+		int value = (index >= 0) ? table.values[index] : 0;
+		if (!_lock.validate(stamp)) {
+			stamp = _lock.readLock();
+			try {
+				table = _table;
+				index = _find(table, key);
+				value = (index >= 0) ? table.values[index] : 0;
+			} finally {
+				_lock.unlockRead(stamp);
+			}
+		}
+		// Note that we still need to box the value here since the read interface is generic.
+		return (index >= 0)
+				? Integer.valueOf(value)
+				: null
+		;
+	}
+
+	@Override
+	public Versioned<Integer> getVersioned(Object key) {
+		long stamp = _lock.tryOptimisticRead();
+		Table table = _table;
+		int index = _find(table, key);
+		int value = (index >= 0) ? table.values[index] : 0;
+		long changeOffset = (index >= 0) ? table.changeOffsets[index] : 0L;
+		if (!_lock.validate(stamp)) {
+			stamp = _lock.readLock();
+			try {
+				table = _table;
+				index = _find(table, key);
+				value = (index >= 0) ? table.values[index] : 0;
+				changeOffset = (index >= 0) ? table.changeOffsets[index] : 0L;
+			} finally {
+				_lock.unlockRead(stamp);
+			}
+		}
+		return (index >= 0)
+				? new Versioned<>(Integer.valueOf(value), changeOffset)
+				: null
+		;
+	}
+
+	@Override
+	public Integer decode(byte[] stored) {
+		return Integer.valueOf(IntegerCodec.decodeInt(stored));
+	}
+
+	@Override
+	public void put(K key, byte[] stored, long changeOffset) {
+		int value = IntegerCodec.decodeInt(stored);
+		long stamp = _lock.writeLock();
+		try {
+			Table table = _table;
+			int index = _find(table, key);
+			if (index >= 0) {
+				table.values[index] = value;
+				table.changeOffsets[index] = changeOffset;
+			} else {
+				if (10 * (_size + 1) > 7 * table.keys.length) {
+					table = _grow(table);
+				}
+				int slot = _home(key, table.keys.length);
+				while (null != table.keys[slot]) {
+					slot = (slot + 1) & (table.keys.length - 1);
+				}
+				table.keys[slot] = key;
+				table.values[slot] = value;
+				table.changeOffsets[slot] = changeOffset;
+				_size += 1;
+			}
+		} finally {
+			_lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void remove(K key) {
+		long stamp = _lock.writeLock();
+		try {
+			Table table = _table;
+			int index = _find(table, key);
+			if (index >= 0) {
+				// Shift back any later entries in this run which would no longer be reachable across the gap.
+				int mask = table.keys.length - 1;
+				int gap = index;
+				int next = (gap + 1) & mask;
+				while (null != table.keys[next]) {
+					int home = _home(table.keys[next], table.keys.length);
+					// The entry can move into the gap unless its home is cyclically within (gap, next].
+					boolean homeAfterGap = (gap <= next)
+							? ((gap < home) && (home <= next))
+							: ((gap < home) || (home <= next))
+					;
+					if (!homeAfterGap) {
+						table.keys[gap] = table.keys[next];
+						table.values[gap] = table.values[next];
+						table.changeOffsets[gap] = table.changeOffsets[next];
+						gap = next;
+					}
+					next = (next + 1) & mask;
+				}
+				table.keys[gap] = null;
+				table.values[gap] = 0;
+				table.changeOffsets[gap] = 0L;
+				_size -= 1;
+			}
+		} finally {
+			_lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void clear() {
+		long stamp = _lock.writeLock();
+		try {
+			_table = new Table(INITIAL_CAPACITY);
+			_size = 0;
+		} finally {
+			_lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		long stamp = _lock.readLock();
+		try {
+			return (0 == _size);
+		} finally {
+			_lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public int size() {
+		long stamp = _lock.readLock();
+		try {
+			return _size;
+		} finally {
+			_lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public void forEachStored(IStoredConsumer<K, byte[]> consumer) {
+		// We copy out under the read lock and then call the consumer without it, so slow consumers don't block the
+		// listener.
+		Object[] keys;
+		int[] values;
+		long[] changeOffsets;
+		int count = 0;
+		long stamp = _lock.readLock();
+		try {
+			Table table = _table;
+			keys = new Object[_size];
+			values = new int[_size];
+			changeOffsets = new long[_size];
+			for (int i = 0; i < table.keys.length; ++i) {
+				if (null != table.keys[i]) {
+					keys[count] = table.keys[i];
+					values[count] = table.values[i];
+					changeOffsets[count] = table.changeOffsets[i];
+					count += 1;
+				}
+			}
+		} finally {
+			_lock.unlockRead(stamp);
+		}
+		for (int i = 0; i < count; ++i) {
+			byte[] bytes = new byte[Integer.BYTES];
+			IntegerCodec.encodeInt(values[i], bytes);
+			@SuppressWarnings("unchecked")
+			K key = (K) keys[i];
+			consumer.accept(key, bytes, changeOffsets[i]);
+		}
+	}
+
+
+	private Table _grow(Table table) {
+		Table grown = new Table(2 * table.keys.length);
+		for (int i = 0; i < table.keys.length; ++i) {
+			Object key = table.keys[i];
+			if (null != key) {
+				int slot = _home(key, grown.keys.length);
+				while (null != grown.keys[slot]) {
+					slot = (slot + 1) & (grown.keys.length - 1);
+				}
+				grown.keys[slot] = key;
+				grown.values[slot] = table.values[i];
+				grown.changeOffsets[slot] = table.changeOffsets[i];
+			}
+		}
+		_table = grown;
+		return grown;
+	}
+
+	private static int _find(Table table, Object key) {
+		// This can run concurrently with a writer so we bound the probe by the table size rather than trusting that we
+		// will find an empty slot.
+		int mask = table.keys.length - 1;
+		int slot = _home(key, table.keys.length);
+		int found = -1;
+		for (int probes = 0; (found < 0) && (probes < table.keys.length); ++probes) {
+			Object candidate = table.keys[slot];
+			if (null == candidate) {
+				probes = table.keys.length;
+			} else if (key.equals(candidate)) {
+				found = slot;
+			} else {
+				slot = (slot + 1) & mask;
+			}
+		}
+		return found;
+	}
+
+	private static int _home(Object key, int capacity) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return hash & (capacity - 1);
+	}
+
+
+	private static class Table {
+		public final Object[] keys;
+		public final int[] values;
+		public final long[] changeOffsets;
+		
+		public Table(int capacity) {
+			this.keys = new Object[capacity];
+			this.values = new int[capacity];
+			this.changeOffsets = new long[capacity];
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.jeffdisher.membrane.store.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Interns document keys across all the topics of a store, giving each distinct key one canonical KeyId.
+ * Topic storages keyed by these ids (see SharedKeyTopicStorage) then share a single instance of each key, instead of
+ * each topic keeping its own decoded copy, and a document read can resolve its key once and then look it up in every
+ * topic by id, which only hashes and compares an int.
+ * Ids are never released, even once a key has been deleted from every topic, so this suits documents which are
+ * updated far more often than they are deleted.
+ * Any number of threads can intern and look up keys concurrently.
+ */
+public class KeyDictionary {
+	private final ConcurrentMap<Object, KeyId> _ids;
+	private final AtomicInteger _nextId;
+
+	public KeyDictionary() {
+		_ids = new ConcurrentHashMap<>();
+		_nextId = new AtomicInteger(0);
+	}
+
+	/**
+	 * @return The id of the given key, assigning it a new one if it doesn't have one.
+	 */
+	public KeyId intern(Object key) {
+		return _ids.computeIfAbsent(key, (Object newKey) -> new KeyId(_nextId.getAndIncrement(), newKey));
+	}
+
+	/**
+	 * @return The id of the given key, or null if it has never been stored in any topic.
+	 */
+	public KeyId lookup(Object key) {
+		return _ids.get(key);
+	}
+
+	/**
+	 * @return The number of keys which have been given ids.
+	 */
+	public int size() {
+		return _ids.size();
+	}
+
+
+	/**
+	 * The canonical id of one key.  There is only ever one instance for each key so it hashes as its id and is only
+	 * equal to itself.
+	 */
+	public static final class KeyId {
+		public final int id;
+		public final Object key;
+		
+		private KeyId(int id, Object key) {
+			this.id = id;
+			this.key = key;
+		}
+		
+		@Override
+		public int hashCode() {
+			return this.id;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.jeffdisher.membrane.store.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jeffdisher.membrane.store.codecs.ByteArrayCodec;
+import com.jeffdisher.membrane.store.codecs.ICodec;
+
+
+/**
+ * Keeps the raw value bytes on the heap and only decodes a value when it is first read, so values which are overwritten
+ * before anyone reads them (common when catching up on a busy topic) are never decoded at all.
+ * If memoizing, the decoded value is kept alongside the bytes so later reads don't decode it again.
+ */
+public class LazyTopicStorage<K, V> implements ITopicStorage<K, byte[], V> {
+	private static final ByteArrayCodec RAW_CODEC = new ByteArrayCodec();
+
+	private final ICodec<V> _valueCodec;
+	private final boolean _memoize;
+	private final Map<K, LazyValue<V>> _map;
+
+	public LazyTopicStorage(ICodec<V> valueCodec, boolean memoize) {
+		_valueCodec = valueCodec;
+		_memoize = memoize;
+		_map = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public ICodec<byte[]> getStoredCodec() {
+		// The listener just passes us the raw bytes - we decode them on read.
+		return RAW_CODEC;
+	}
+
+	@Override
+	public V get(Object key) {
+		LazyValue<V> lazy = _map.get(key);
+		return (null != lazy)
+				? _decode(lazy)
+				: null
+		;
+	}
+
+	@Override
+	public Versioned<V> getVersioned(Object key) {
+		LazyValue<V> lazy = _map.get(key);
+		return (null != lazy)
+				? new Versioned<>(_decode(lazy), lazy.changeOffset)
+				: null
+		;
+	}
+
+	@Override
+	public V decode(byte[] stored) {
+		return _valueCodec.deserialize(stored);
+	}
+
+	@Override
+	public void put(K key, byte[] stored, long changeOffset) {
+		_map.put(key, new LazyValue<>(stored, changeOffset));
+	}
+
+	@Override
+	public void remove(K key) {
+		_map.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		_map.clear();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return _map.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return _map.size();
+	}
+
+	@Override
+	public void forEachStored(IStoredConsumer<K, byte[]> consumer) {
+		_map.forEach((K key, LazyValue<V> lazy) -> consumer.accept(key, lazy.bytes, lazy.changeOffset));
+	}
+
+
+	private V _decode(LazyValue<V> lazy) {
+		V value = lazy.decoded;
+		if (null == value) {
+			value = _valueCodec.deserialize(lazy.bytes);
+			if (_memoize) {
+				// Racing readers may both decode but they will produce equal values so either can win.
+				lazy.decoded = value;
+			}
+		}
+		return value;
+	}
+
+
+	private static class LazyValue<V> {
+		public final byte[] bytes;
+		public final long changeOffset;
+		public volatile V decoded;
+		
+		public LazyValue(byte[] bytes, long changeOffset) {
+			this.bytes = bytes;
+			this.changeOffset = changeOffset;
+		}
+	}
+}
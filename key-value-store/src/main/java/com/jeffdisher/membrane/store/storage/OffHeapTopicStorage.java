@@ -0,0 +1,284 @@
+package com.jeffdisher.membrane.store.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+import com.jeffdisher.laminar.utils.Assert;
+import com.jeffdisher.membrane.store.codecs.ByteArrayCodec;
+import com.jeffdisher.membrane.store.codecs.IBufferCodec;
+import com.jeffdisher.membrane.store.codecs.ICodec;
+
+
+/**
+ * Stores the encoded values in an arena of direct buffers, outside of the Java heap, keeping only an index of where
+ * each key's value is on the heap.  Values are only decoded when read.
+ * The arena is divided into power-of-2 sized slots (from 16 bytes up to the size of a chunk) and each slot starts with
+ * the length of the value within it and the offset of the change which set it.  Freed slots are kept on a per-size free list for reuse.
+ * Since a freed slot can be reused while a reader is still copying out of it, all modifications take the write side of
+ * a StampedLock and readers use optimistic reads, validating them (and falling back to a read lock) before trusting
+ * what they copied.
+ * If the value codec is an IBufferCodec, values are decoded straight out of the arena, without first copying them out.
+ */
+public class OffHeapTopicStorage<K, V> implements ITopicStorage<K, byte[], V> {
+	private static final ByteArrayCodec RAW_CODEC = new ByteArrayCodec();
+	private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+	private static final int MIN_SLOT_SHIFT = 4;
+	// The value length followed by its change offset.
+	private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+	private static final Object INCONSISTENT = new Object();
+	private static final Function<ByteBuffer, byte[]> COPY_READER = (ByteBuffer slice) -> {
+		byte[] bytes = new byte[slice.remaining()];
+		slice.get(bytes);
+		return bytes;
+	};
+	private static final Function<ByteBuffer, Versioned<byte[]>> STORED_READER = (ByteBuffer slice) -> {
+		// The change offset is at the end of the header, just before the value.
+		long changeOffset = slice.getLong(slice.position() - Long.BYTES);
+		return new Versioned<>(COPY_READER.apply(slice), changeOffset);
+	};
+
+	private final ICodec<V> _valueCodec;
+	private final Function<ByteBuffer, V> _decodeReader;
+	private final Function<ByteBuffer, Versioned<V>> _versionedReader;
+	private final Map<K, Long> _index;
+	private final StampedLock _lock;
+	// The chunks array is replaced, never modified, so optimistic readers always see a complete array.
+	private volatile ByteBuffer[] _chunks;
+	private int _nextFreeOffset;
+	// Free slot addresses, indexed by size class, used as stacks.
+	private long[][] _freeSlots;
+	private int[] _freeCounts;
+
+	public OffHeapTopicStorage(ICodec<V> valueCodec) {
+		_valueCodec = valueCodec;
+		_decodeReader = (valueCodec instanceof IBufferCodec)
+				? ((IBufferCodec<V>)valueCodec)::decode
+				: null
+		;
+		_versionedReader = (ByteBuffer slice) -> {
+			// The change offset is at the end of the header, just before the value.
+			long changeOffset = slice.getLong(slice.position() - Long.BYTES);
+			V value = (null != _decodeReader)
+					? _decodeReader.apply(slice)
+					: _valueCodec.deserialize(COPY_READER.apply(slice))
+			;
+			return new Versioned<>(value, changeOffset);
+		};
+		_index = new ConcurrentHashMap<>();
+		_lock = new StampedLock();
+		_resetArena();
+	}
+
+	@Override
+	public ICodec<byte[]> getStoredCodec() {
+		// The listener just passes us the raw bytes - we never decode them until they are read.
+		return RAW_CODEC;
+	}
+
+	@Override
+	public V get(Object key) {
+		V value;
+		if (null != _decodeReader) {
+			value = _read(key, _decodeReader);
+		} else {
+			byte[] bytes = _read(key, COPY_READER);
+			value = (null != bytes)
+					? _valueCodec.deserialize(bytes)
+					: null
+			;
+		}
+		return value;
+	}
+
+	@Override
+	public Versioned<V> getVersioned(Object key) {
+		return _read(key, _versionedReader);
+	}
+
+	@Override
+	public V decode(byte[] stored) {
+		return _valueCodec.deserialize(stored);
+	}
+
+	@Override
+	public void put(K key, byte[] stored, long changeOffset) {
+		long stamp = _lock.writeLock();
+		try {
+			long address = _allocate(stored.length);
+			ByteBuffer chunk = _chunks[_chunkIndex(address)];
+			int offset = _chunkOffset(address);
+			chunk.putInt(offset, stored.length);
+			chunk.putLong(offset + Integer.BYTES, changeOffset);
+			ByteBuffer target = chunk.duplicate();
+			target.position(offset + HEADER_SIZE);
+			target.put(stored);
+			Long previous = _index.put(key, address);
+			if (null != previous) {
+				_free(previous);
+			}
+		} finally {
+			_lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void remove(K key) {
+		long stamp = _lock.writeLock();
+		try {
+			Long previous = _index.remove(key);
+			if (null != previous) {
+				_free(previous);
+			}
+		} finally {
+			_lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void clear() {
+		long stamp = _lock.writeLock();
+		try {
+			_index.clear();
+			// We just drop the chunks - their memory is released once the buffers are collected.
+			_resetArena();
+		} finally {
+			_lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return _index.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return _index.size();
+	}
+
+	@Override
+	public void forEachStored(IStoredConsumer<K, byte[]> consumer) {
+		for (K key : _index.keySet()) {
+			Versioned<byte[]> stored = _read(key, STORED_READER);
+			// The key may have been removed since we started.
+			if (null != stored) {
+				consumer.accept(key, stored.value, stored.changeOffset);
+			}
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private <T> T _read(Object key, Function<ByteBuffer, T> reader) {
+		long stamp = _lock.tryOptimisticRead();
+		Object result = INCONSISTENT;
+		if (0L != stamp) {
+			try {
+				result = _readSlice(key, reader);
+			} catch (RuntimeException e) {
+				// A torn value may not decode but we are about to discard it, anyway.
+				result = INCONSISTENT;
+			}
+		}
+		if ((INCONSISTENT == result) || !_lock.validate(stamp)) {
+			// Something changed while we were reading so do it again, under the lock.
+			stamp = _lock.readLock();
+			try {
+				result = _readSlice(key, reader);
+				Assert.assertTrue(INCONSISTENT != result);
+			} finally {
+				_lock.unlockRead(stamp);
+			}
+		}
+		return (T) result;
+	}
+
+	private Object _readSlice(Object key, Function<ByteBuffer, ?> reader) {
+		// This can run concurrently with a writer so we check that everything is in bounds before we trust it, returning
+		// INCONSISTENT if it isn't.
+		Long address = _index.get(key);
+		Object result = null;
+		if (null != address) {
+			ByteBuffer[] chunks = _chunks;
+			int chunkIndex = _chunkIndex(address);
+			int offset = _chunkOffset(address);
+			if ((chunkIndex < chunks.length) && (offset <= (CHUNK_SIZE - HEADER_SIZE))) {
+				ByteBuffer chunk = chunks[chunkIndex];
+				int length = chunk.getInt(offset);
+				if ((length >= 0) && (length <= (CHUNK_SIZE - HEADER_SIZE - offset))) {
+					ByteBuffer slice = chunk.asReadOnlyBuffer();
+					slice.limit(offset + HEADER_SIZE + length);
+					slice.position(offset + HEADER_SIZE);
+					result = reader.apply(slice);
+				} else {
+					result = INCONSISTENT;
+				}
+			} else {
+				result = INCONSISTENT;
+			}
+		}
+		return result;
+	}
+
+	private long _allocate(int length) {
+		int sizeClass = _sizeClass(HEADER_SIZE + length);
+		long address;
+		if (_freeCounts[sizeClass] > 0) {
+			_freeCounts[sizeClass] -= 1;
+			address = _freeSlots[sizeClass][_freeCounts[sizeClass]];
+		} else {
+			int slotSize = 1 << (sizeClass + MIN_SLOT_SHIFT);
+			ByteBuffer[] chunks = _chunks;
+			if ((0 == chunks.length) || (slotSize > (CHUNK_SIZE - _nextFreeOffset))) {
+				// Start a new chunk (the tail of the old one is wasted but it is smaller than this slot).
+				ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+				grown[chunks.length] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+				_chunks = grown;
+				_nextFreeOffset = 0;
+			}
+			address = (((long)(_chunks.length - 1)) << 32) | _nextFreeOffset;
+			_nextFreeOffset += slotSize;
+		}
+		return address;
+	}
+
+	private void _free(long address) {
+		int length = _chunks[_chunkIndex(address)].getInt(_chunkOffset(address));
+		int sizeClass = _sizeClass(HEADER_SIZE + length);
+		if (_freeCounts[sizeClass] == _freeSlots[sizeClass].length) {
+			_freeSlots[sizeClass] = Arrays.copyOf(_freeSlots[sizeClass], 2 * _freeSlots[sizeClass].length);
+		}
+		_freeSlots[sizeClass][_freeCounts[sizeClass]] = address;
+		_freeCounts[sizeClass] += 1;
+	}
+
+	private void _resetArena() {
+		int classCount = Integer.numberOfTrailingZeros(CHUNK_SIZE) - MIN_SLOT_SHIFT + 1;
+		_chunks = new ByteBuffer[0];
+		_nextFreeOffset = 0;
+		_freeSlots = new long[classCount][];
+		for (int i = 0; i < classCount; ++i) {
+			_freeSlots[i] = new long[16];
+		}
+		_freeCounts = new int[classCount];
+	}
+
+	private static int _sizeClass(int slotBytes) {
+		// We don't handle values larger than a chunk.
+		Assert.assertTrue(slotBytes <= CHUNK_SIZE);
+		int shift = 32 - Integer.numberOfLeadingZeros(slotBytes - 1);
+		return Math.max(shift, MIN_SLOT_SHIFT) - MIN_SLOT_SHIFT;
+	}
+
+	private static int _chunkIndex(long address) {
+		return (int)(address >>> 32);
+	}
+
+	private static int _chunkOffset(long address) {
+		return (int)address;
+	}
+}
@@ -0,0 +1,91 @@
+package com.jeffdisher.membrane.store.storage;
+
+import com.jeffdisher.membrane.store.codecs.ICodec;
+
+
+/**
+ * Wraps another storage so that it is keyed by the ids of a KeyDictionary shared with the other topics, instead of by
+ * this topic's own key instances.
+ * Reads can pass either a key, which is looked up in the dictionary, or a KeyId already resolved from it (which is how
+ * document reads avoid looking the key up again for every topic).
+ */
+public class SharedKeyTopicStorage<K, S, V> implements ITopicStorage<K, S, V> {
+	private final KeyDictionary _dictionary;
+	private final ITopicStorage<KeyDictionary.KeyId, S, V> _storage;
+
+	public SharedKeyTopicStorage(KeyDictionary dictionary, ITopicStorage<KeyDictionary.KeyId, S, V> storage) {
+		_dictionary = dictionary;
+		_storage = storage;
+	}
+
+	@Override
+	public ICodec<S> getStoredCodec() {
+		return _storage.getStoredCodec();
+	}
+
+	@Override
+	public V get(Object key) {
+		KeyDictionary.KeyId id = _resolve(key);
+		return (null != id)
+				? _storage.get(id)
+				: null
+		;
+	}
+
+	@Override
+	public Versioned<V> getVersioned(Object key) {
+		KeyDictionary.KeyId id = _resolve(key);
+		return (null != id)
+				? _storage.getVersioned(id)
+				: null
+		;
+	}
+
+	@Override
+	public V decode(S stored) {
+		return _storage.decode(stored);
+	}
+
+	@Override
+	public void put(K key, S stored, long changeOffset) {
+		_storage.put(_dictionary.intern(key), stored, changeOffset);
+	}
+
+	@Override
+	public void remove(K key) {
+		KeyDictionary.KeyId id = _dictionary.lookup(key);
+		if (null != id) {
+			_storage.remove(id);
+		}
+	}
+
+	@Override
+	public void clear() {
+		_storage.clear();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return _storage.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return _storage.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void forEachStored(IStoredConsumer<K, S> consumer) {
+		// The interned key may be another topic's instance but it is equal to the one this topic put, so it is a K.
+		_storage.forEachStored((KeyDictionary.KeyId id, S stored, long changeOffset) -> consumer.accept((K)id.key, stored, changeOffset));
+	}
+
+
+	private KeyDictionary.KeyId _resolve(Object key) {
+		return (key instanceof KeyDictionary.KeyId)
+				? (KeyDictionary.KeyId)key
+				: _dictionary.lookup(key)
+		;
+	}
+}
@@ -0,0 +1,16 @@
+package com.jeffdisher.membrane.store.storage;
+
+
+/**
+ * A value along with the intention offset of the change which set it, which changes whenever the value does.
+ * Snapshots store each value's offset so values loaded from one keep the offset they had when it was written.
+ */
+public class Versioned<V> {
+	public final V value;
+	public final long changeOffset;
+
+	public Versioned(V value, long changeOffset) {
+		this.value = value;
+		this.changeOffset = changeOffset;
+	}
+}
@@ -1,17 +1,32 @@
 package com.jeffdisher.membrane.store;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.jeffdisher.laminar.types.CommitInfo;
 import com.jeffdisher.laminar.types.TopicName;
 import com.jeffdisher.membrane.store.codecs.ICodec;
+import com.jeffdisher.membrane.store.codecs.IntegerCodec;
 import com.jeffdisher.membrane.store.codecs.StringCodec;
+import com.jeffdisher.membrane.store.metrics.LatencyHistogram;
+import com.jeffdisher.membrane.store.metrics.MetricsRegistry;
+import com.jeffdisher.membrane.store.storage.HeapTopicStorage;
+import com.jeffdisher.membrane.store.storage.Versioned;
 
 
 public class SynchronousStoreTest {
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
 	@Test
 	public void testStartStop() throws Throwable {
 		TestingFactory factory = new TestingFactory();
@@ -120,4 +135,652 @@ public class SynchronousStoreTest {
 		store.close();
 		factory.verifyClosed(2);
 	}
+
+	@Test
+	public void testReadWaitsForListener() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic1 = TopicName.fromString("topic1");
+		TopicName topic2 = TopicName.fromString("topic2");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		SynchronousStore store = new SynchronousStore(factory);
+		BoundTopic<String, String> bound1 = store.attachToExistingTopic(topic1, keyCodec, valueCodec);
+		BoundTopic<String, String> bound2 = store.attachToExistingTopic(topic2, keyCodec, valueCodec);
+		TestingReader<?,?> reader1 = factory.getReaders().get(0);
+		
+		// Write to topic1 so that reads need to wait for the listener to observe offset 3.
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 3L);
+		Assert.assertTrue(bound1.put("key", "value2".getBytes()));
+		String[] result = new String[1];
+		Thread readerThread = new Thread(()->{
+			result[0] = bound1.get("key");
+		});
+		readerThread.start();
+		
+		// The lagging topic1 doesn't block reads of topic2.
+		Assert.assertNull(bound2.get("key"));
+		
+		// Applying the intermediate offset doesn't release the reader but reaching the written offset does.
+		_waitUntilBlocked(readerThread);
+		reader1.putString("key", "value1", 2L);
+		readerThread.join(100L);
+		Assert.assertTrue(readerThread.isAlive());
+		Assert.assertNull(result[0]);
+		reader1.putString("key", "value2", 3L);
+		readerThread.join();
+		Assert.assertEquals("value2", result[0]);
+		
+		store.close();
+		factory.verifyClosed(2);
+	}
+
+	@Test
+	public void testReadConsistency() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		SynchronousStore store = new SynchronousStore(factory);
+		BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		
+		// Two writes, from different "clients", which the listener hasn't seen yet.
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 2L);
+		long token = bound.putForSession("key", "value1".getBytes());
+		Assert.assertEquals(2L, token);
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 3L);
+		Assert.assertTrue(bound.put("key", "value2".getBytes()));
+		
+		// Eventual reads don't wait.
+		Assert.assertNull(bound.get("key", ReadConsistency.EVENTUAL));
+		Assert.assertEquals(0, store.readWholeDocument("key", ReadConsistency.EVENTUAL).size());
+		
+		// A session read only waits for its own write, not the later one.
+		reader.putString("key", "value1", 2L);
+		Assert.assertEquals("value1", bound.get("key", ReadConsistency.session(token)));
+		// A token beyond what we wrote is clamped to our last write, instead of waiting forever.
+		String[] result = new String[1];
+		Thread readerThread = new Thread(()->{
+			result[0] = bound.get("key", ReadConsistency.session(100L));
+		});
+		readerThread.start();
+		reader.putString("key", "value2", 3L);
+		readerThread.join();
+		Assert.assertEquals("value2", result[0]);
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testBoundedStaleness() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		SynchronousStore store = new SynchronousStore(factory);
+		BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		reader.putString("key", "value1", 2L);
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 5L);
+		Assert.assertTrue(bound.put("key", "value2".getBytes()));
+		
+		// The listener has stalled so a bounded read gives up and returns the stale value, with its lag.
+		ReadConsistency bounded = ReadConsistency.PROCESS.withMaxWait(50L);
+		ReadResult<String> result = bound.read("key", bounded);
+		Assert.assertEquals("value1", result.value);
+		Assert.assertTrue(result.isStale());
+		Assert.assertEquals(3L, result.lagOffsets);
+		ReadResult<Map<TopicName, Object>> document = store.readDocument("key", bounded);
+		Assert.assertEquals("value1", document.value.get(topic));
+		Assert.assertEquals(3L, document.lagOffsets);
+		
+		// Once the listener catches up, reads are fresh, again.
+		reader.putString("key", "value2", 5L);
+		result = bound.read("key", bounded);
+		Assert.assertEquals("value2", result.value);
+		Assert.assertFalse(result.isStale());
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testReadDocumentFields() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic1 = TopicName.fromString("topic1");
+		TopicName topic2 = TopicName.fromString("topic2");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		SynchronousStore store = new SynchronousStore(factory);
+		BoundTopic<String, String> bound1 = store.attachToExistingTopic(topic1, keyCodec, valueCodec);
+		store.attachToExistingTopic(topic2, keyCodec, valueCodec);
+		TestingReader<?,?> reader2 = factory.getReaders().get(1);
+		reader2.putString("key", "value2", 1L);
+		
+		// topic1 is lagging but a projection onto topic2 (and an unknown field) doesn't wait for it.
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 5L);
+		Assert.assertTrue(bound1.put("key", "value1".getBytes()));
+		ReadResult<Map<TopicName, Object>> result = store.readDocumentFields("key", Arrays.asList(topic2, TopicName.fromString("missing")), ReadConsistency.PROCESS);
+		Assert.assertEquals(1, result.value.size());
+		Assert.assertEquals("value2", result.value.get(topic2));
+		Assert.assertFalse(result.isStale());
+		
+		store.close();
+		factory.verifyClosed(2);
+	}
+
+	@Test
+	public void testBatchReads() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic1 = TopicName.fromString("topic1");
+		TopicName topic2 = TopicName.fromString("topic2");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		SynchronousStore store = new SynchronousStore(factory);
+		BoundTopic<String, String> bound1 = store.attachToExistingTopic(topic1, keyCodec, valueCodec);
+		store.attachToExistingTopic(topic2, keyCodec, valueCodec);
+		TestingReader<?,?> reader1 = factory.getReaders().get(0);
+		TestingReader<?,?> reader2 = factory.getReaders().get(1);
+		reader1.putString("key1", "value1", 1L);
+		reader2.putString("key2", "value2", 2L);
+		
+		// A write means the batch waits for the listener, once.
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 3L);
+		Assert.assertTrue(bound1.put("key2", "value3".getBytes()));
+		List<Map<String, String>> values = new ArrayList<>();
+		Thread readerThread = new Thread(()->{
+			values.add(bound1.getAll(Arrays.asList("key1", "key2", "key3")));
+		});
+		readerThread.start();
+		reader1.putString("key2", "value3", 3L);
+		readerThread.join();
+		Assert.assertEquals(2, values.get(0).size());
+		Assert.assertEquals("value1", values.get(0).get("key1"));
+		Assert.assertEquals("value3", values.get(0).get("key2"));
+		
+		Map<String, Map<TopicName, Object>> documents = store.readWholeDocuments(Arrays.asList("key1", "key2", "key3"));
+		Assert.assertEquals(3, documents.size());
+		Assert.assertEquals("value1", documents.get("key1").get(topic1));
+		Assert.assertEquals("value3", documents.get("key2").get(topic1));
+		Assert.assertEquals("value2", documents.get("key2").get(topic2));
+		Assert.assertTrue(documents.get("key3").isEmpty());
+		
+		store.close();
+		factory.verifyClosed(2);
+	}
+
+	@Test
+	public void testChangeListener() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		StoreOptions options = new StoreOptions();
+		// Use lazy values to check that the listener is given the decoded value.
+		options.lazyValues = true;
+		SynchronousStore store = new SynchronousStore(factory, options);
+		store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		List<String> changes = new ArrayList<>();
+		IChangeListener listener = new IChangeListener() {
+			@Override
+			public void didPut(TopicName topic, Object key, Supplier<Object> value, long intentionOffset) {
+				changes.add("PUT " + topic.string + " " + key + "=" + value.get() + " @" + intentionOffset);
+			}
+			@Override
+			public void didDelete(TopicName topic, Object key, long intentionOffset) {
+				changes.add("DELETE " + topic.string + " " + key + " @" + intentionOffset);
+			}
+			@Override
+			public void didDestroy(TopicName topic, long intentionOffset) {
+				changes.add("DESTROY " + topic.string + " @" + intentionOffset);
+			}
+		};
+		reader.putString("key", "before", 1L);
+		store.addChangeListener(listener);
+		reader.putString("key", "value", 2L);
+		reader.deleteString("key", 3L);
+		reader.shim.destroy(4L);
+		store.removeChangeListener(listener);
+		reader.putString("key", "after", 5L);
+		Assert.assertEquals(Arrays.asList("PUT test key=value @2", "DELETE test key @3", "DESTROY test @4"), changes);
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testVersionedReads() throws Throwable {
+		// Every storage must track the change offsets.
+		for (int mode = 0; mode < 3; ++mode) {
+			TestingFactory factory = new TestingFactory();
+			TopicName topic = TopicName.fromString("test");
+			TopicName numbers = TopicName.fromString("numbers");
+			ICodec<String> keyCodec = new StringCodec();
+			StoreOptions options = new StoreOptions();
+			options.offHeapValues = (1 == mode);
+			options.lazyValues = (2 == mode);
+			SynchronousStore store = new SynchronousStore(factory, options);
+			BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, new StringCodec());
+			BoundTopic<String, Integer> boundNumbers = store.attachToExistingTopic(numbers, keyCodec, new IntegerCodec());
+			TestingReader<?,?> reader = factory.getReaders().get(0);
+			TestingReader<?,?> numberReader = factory.getReaders().get(1);
+			reader.putString("key", "value1", 2L);
+			reader.putString("key", "value2", 4L);
+			reader.putString("other", "value3", 5L);
+			numberReader.putBytes("key", new IntegerCodec().serialize(7), 6L);
+			
+			ReadResult<Versioned<String>> result = bound.readVersioned("key", ReadConsistency.PROCESS);
+			Assert.assertEquals("value2", result.value.value);
+			Assert.assertEquals(4L, result.value.changeOffset);
+			Assert.assertNull(bound.readVersioned("missing", ReadConsistency.PROCESS).value);
+			Assert.assertEquals(6L, boundNumbers.readVersioned("key", ReadConsistency.PROCESS).value.changeOffset);
+			Map<TopicName, Versioned<?>> document = store.readVersionedDocument("key", null, ReadConsistency.PROCESS).value;
+			Assert.assertEquals(2, document.size());
+			Assert.assertEquals(4L, document.get(topic).changeOffset);
+			Assert.assertEquals(7, document.get(numbers).value);
+			
+			store.close();
+			factory.verifyClosed(2);
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		StoreOptions options = new StoreOptions();
+		MetricsRegistry metrics = options.metrics;
+		SynchronousStore store = new SynchronousStore(factory, options);
+		BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		reader.putString("key1", "value", 1L);
+		reader.putString("key2", "value", 2L);
+		reader.deleteString("key1", 3L);
+		Assert.assertEquals("value", bound.get("key2"));
+		Assert.assertNull(bound.get("key1"));
+		
+		StringBuilder text = new StringBuilder();
+		metrics.writePrometheus(text);
+		String output = text.toString();
+		Assert.assertTrue(output.contains("# TYPE membrane_consequences_applied_total counter\n"));
+		Assert.assertTrue(output.contains("membrane_consequences_applied_total{topic=\"test\"} 3\n"));
+		Assert.assertTrue(output.contains("membrane_topic_keys{topic=\"test\"} 1\n"));
+		Assert.assertTrue(output.contains("membrane_topic_reads_total{topic=\"test\"} 2\n"));
+		Assert.assertTrue(output.contains("membrane_replication_lag_offsets{topic=\"test\"} 0\n"));
+		// Every lock acquisition is counted by the histogram (3 changes and their checkpoints).
+		Assert.assertTrue(output.contains("membrane_topic_lock_hold_seconds_bucket{topic=\"test\",le=\"+Inf\"} 6\n"));
+		Assert.assertTrue(output.contains("membrane_topic_lock_hold_seconds_count{topic=\"test\"} 6\n"));
+		
+		// Check the histogram buckets are cumulative and bounded by powers of 2 microseconds.
+		LatencyHistogram histogram = metrics.histogram("test_seconds", "Test.", "label", "a\"b");
+		histogram.record(500L);
+		histogram.record(1_000L);
+		// Partial microseconds round up so this is beyond the 1us bound.
+		histogram.record(1_900L);
+		histogram.record(2_000L);
+		histogram.record(3_000L);
+		histogram.record(Long.MAX_VALUE);
+		text = new StringBuilder();
+		metrics.writePrometheus(text);
+		output = text.toString();
+		Assert.assertTrue(output.contains("test_seconds_bucket{label=\"a\\\"b\",le=\"1.0E-6\"} 2\n"));
+		Assert.assertTrue(output.contains("test_seconds_bucket{label=\"a\\\"b\",le=\"2.0E-6\"} 4\n"));
+		Assert.assertTrue(output.contains("test_seconds_bucket{label=\"a\\\"b\",le=\"4.0E-6\"} 5\n"));
+		Assert.assertTrue(output.contains("test_seconds_bucket{label=\"a\\\"b\",le=\"+Inf\"} 6\n"));
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testBatchApply() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		StoreOptions options = new StoreOptions();
+		MetricsRegistry metrics = options.metrics;
+		SynchronousStore store = new SynchronousStore(factory, options);
+		BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		List<String> changes = new ArrayList<>();
+		store.addChangeListener(new IChangeListener() {
+			@Override
+			public void didPut(TopicName topic, Object key, Supplier<Object> value, long intentionOffset) {
+				changes.add("PUT " + key + "=" + value.get() + " @" + intentionOffset);
+			}
+			@Override
+			public void didDelete(TopicName topic, Object key, long intentionOffset) {
+				changes.add("DELETE " + key + " @" + intentionOffset);
+			}
+			@Override
+			public void didDestroy(TopicName topic, long intentionOffset) {
+				changes.add("DESTROY @" + intentionOffset);
+			}
+		});
+		
+		// A reader waiting for the end of the batch is released by it.
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 4L);
+		Assert.assertTrue(bound.put("key2", "value".getBytes()));
+		String[] result = new String[1];
+		Thread readerThread = new Thread(()->{
+			result[0] = bound.get("key2");
+		});
+		readerThread.start();
+		reader.batchStrings(new String[] {"key1", "key2", "key1", "key2"}, new String[] {"first", "other", null, "value"}, 1L);
+		readerThread.join();
+		Assert.assertEquals("value", result[0]);
+		
+		Assert.assertNull(bound.get("key1"));
+		Assert.assertEquals(4L, bound.readVersioned("key2", ReadConsistency.PROCESS).value.changeOffset);
+		Assert.assertEquals(Arrays.asList("PUT key1=first @1", "PUT key2=other @2", "DELETE key1 @3", "PUT key2=value @4"), changes);
+		
+		// The batch is applied under one lock acquisition (the other is the write updating its offset) but still counts
+		// every consequence.
+		StringBuilder text = new StringBuilder();
+		metrics.writePrometheus(text);
+		String output = text.toString();
+		Assert.assertTrue(output.contains("membrane_consequences_applied_total{topic=\"test\"} 4\n"));
+		Assert.assertTrue(output.contains("membrane_topic_lock_hold_seconds_count{topic=\"test\"} 2\n"));
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testSharedKeys() throws Throwable {
+		File directory = _folder.newFolder();
+		TopicName name = TopicName.fromString("name");
+		TopicName number = TopicName.fromString("number");
+		ICodec<String> keyCodec = new StringCodec();
+		StoreOptions options = new StoreOptions();
+		options.sharedKeys = true;
+		options.snapshotDirectory = directory;
+		TestingFactory factory1 = new TestingFactory();
+		SynchronousStore store1 = new SynchronousStore(factory1, options);
+		BoundTopic<String, String> boundName = store1.attachToExistingTopic(name, keyCodec, new StringCodec());
+		store1.attachToExistingTopic(number, keyCodec, new IntegerCodec());
+		TestingReader<?,?> nameReader = factory1.getReaders().get(0);
+		TestingReader<?,?> numberReader = factory1.getReaders().get(1);
+		nameReader.putString("user1", "User 1", 1L);
+		numberReader.putBytes("user1", new IntegerCodec().serialize(1), 2L);
+		numberReader.putBytes("user2", new IntegerCodec().serialize(2), 3L);
+		numberReader.deleteString("user2", 4L);
+		
+		// A key which isn't in the dictionary yet is found once the read has waited for the listener to add it.
+		factory1.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 5L);
+		Assert.assertTrue(boundName.put("user3", "User 3".getBytes()));
+		List<Map<TopicName, Object>> documents = new ArrayList<>();
+		Thread readerThread = new Thread(()->{
+			documents.add(store1.readWholeDocument("user3"));
+		});
+		readerThread.start();
+		nameReader.putString("user3", "User 3", 5L);
+		readerThread.join();
+		Assert.assertEquals("User 3", documents.get(0).get(name));
+		
+		Map<TopicName, Object> document = store1.readWholeDocument("user1");
+		Assert.assertEquals("User 1", document.get(name));
+		Assert.assertEquals(1, document.get(number));
+		Assert.assertEquals(2L, store1.readVersionedDocument("user1", null, ReadConsistency.PROCESS).value.get(number).changeOffset);
+		Assert.assertEquals("User 1", boundName.get("user1"));
+		Map<String, Map<TopicName, Object>> batch = store1.readWholeDocuments(Arrays.asList("user1", "user2", "missing"));
+		Assert.assertEquals(2, batch.get("user1").size());
+		Assert.assertTrue(batch.get("user2").isEmpty());
+		Assert.assertTrue(batch.get("missing").isEmpty());
+		
+		// Each key is only in the dictionary once, however many topics have it (and even once deleted).
+		StringBuilder text = new StringBuilder();
+		options.metrics.writePrometheus(text);
+		Assert.assertTrue(text.toString().contains("membrane_shared_keys 3\n"));
+		store1.close();
+		factory1.verifyClosed(2);
+		
+		// The snapshots are written with the original keys so they can be restored.
+		TestingFactory factory2 = new TestingFactory();
+		SynchronousStore store2 = new SynchronousStore(factory2, options);
+		store2.attachToExistingTopic(name, keyCodec, new StringCodec());
+		store2.attachToExistingTopic(number, keyCodec, new IntegerCodec());
+		document = store2.readWholeDocument("user1");
+		Assert.assertEquals("User 1", document.get(name));
+		Assert.assertEquals(1, document.get(number));
+		store2.close();
+		factory2.verifyClosed(2);
+	}
+
+	@Test
+	public void testAsyncPut() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		SynchronousStore store = new SynchronousStore(factory);
+		BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		
+		// An invalid put doesn't require reads to wait.
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.INVALID, 2L);
+		Assert.assertFalse(bound.putAsync("key", "value".getBytes()).get());
+		Assert.assertNull(bound.get("key"));
+		
+		// A valid one means that the next read waits for the listener.
+		factory.getWriter().put = CommitInfo.create(CommitInfo.Effect.VALID, 3L);
+		Assert.assertTrue(bound.putAsync("key", "value".getBytes()).get());
+		Thread thread = new Thread(()->{
+			reader.putString("key", "value", 3L);
+		});
+		thread.start();
+		Assert.assertEquals("value", bound.get("key"));
+		thread.join();
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testSnapshotRestore() throws Throwable {
+		File directory = _folder.newFolder();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		StoreOptions options = new StoreOptions();
+		options.snapshotDirectory = directory;
+		
+		// Populate the first store and close it, which writes the snapshot.
+		TestingFactory factory1 = new TestingFactory();
+		SynchronousStore store1 = new SynchronousStore(factory1, options);
+		store1.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader1 = factory1.getReaders().get(0);
+		Assert.assertEquals(0L, reader1.previousConsequenceOffset);
+		Thread thread = new Thread(()->{
+			reader1.shim.create(1L);
+			reader1.putString("key", "value1", 2L);
+			reader1.putString("key2", "value2", 3L);
+			reader1.deleteString("key2", 4L);
+		});
+		thread.start();
+		thread.join();
+		store1.close();
+		factory1.verifyClosed(1);
+		Assert.assertTrue(new File(directory, "test.snapshot").isFile());
+		
+		// The second store starts from the snapshot, so the listener resumes after it and the data is already there.
+		TestingFactory factory2 = new TestingFactory();
+		SynchronousStore store2 = new SynchronousStore(factory2, options);
+		BoundTopic<String, String> bound = store2.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader2 = factory2.getReaders().get(0);
+		Assert.assertEquals(4L, reader2.previousConsequenceOffset);
+		Assert.assertEquals("value1", bound.get("key"));
+		Assert.assertNull(bound.get("key2"));
+		// The value still has the offset of the change which set it, not of the snapshot, so old versions stay stale.
+		Assert.assertEquals(2L, bound.readVersioned("key", ReadConsistency.PROCESS).value.changeOffset);
+		store2.close();
+		factory2.verifyClosed(1);
+	}
+
+	@Test
+	public void testSnapshotDuringCreate() throws Throwable {
+		File directory = _folder.newFolder();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		StoreOptions options = new StoreOptions();
+		options.snapshotDirectory = directory;
+		
+		// Write the snapshot a racing snapshot thread could capture:  the offsets from before the create was applied but
+		// entries from puts which came after it.
+		HeapTopicStorage<String, String> captured = new HeapTopicStorage<>(valueCodec);
+		captured.put("key", "value1", 2L);
+		captured.put("key2", "value2", 3L);
+		TopicSnapshot.write(TopicSnapshot.fileForTopic(directory, topic.string), 0L, 0L, captured, keyCodec);
+		
+		// Restarting replays the create over that storage, and then the puts, without failing.
+		TestingFactory factory = new TestingFactory();
+		SynchronousStore store = new SynchronousStore(factory, options);
+		BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		Assert.assertEquals(0L, reader.previousConsequenceOffset);
+		reader.shim.create(1L);
+		reader.shim.checkpoint(1L);
+		reader.putString("key", "value1", 2L);
+		reader.putString("key2", "value2", 3L);
+		reader.deleteString("key2", 4L);
+		Assert.assertEquals("value1", bound.get("key"));
+		Assert.assertNull(bound.get("key2"));
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testOffHeapValues() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		ICodec<String> valueCodec = new StringCodec();
+		StoreOptions options = new StoreOptions();
+		options.offHeapValues = true;
+		SynchronousStore store = new SynchronousStore(factory, options);
+		BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		// The listener is given the raw bytes to store.
+		Assert.assertTrue(reader.valueCodec.deserialize(new byte[] {1}) instanceof byte[]);
+		
+		// Overwrite values with different sizes so that slots are freed and reused.
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 1000; ++i) {
+			builder.append("big value ");
+		}
+		String bigValue = builder.toString();
+		Thread thread = new Thread(()->{
+			reader.shim.create(1L);
+			reader.putString("key", "value1", 2L);
+			reader.putString("key2", bigValue, 3L);
+			reader.putString("key", bigValue, 4L);
+			reader.putString("key2", "small", 5L);
+			reader.putString("key3", "value3", 6L);
+			reader.deleteString("key3", 7L);
+		});
+		thread.start();
+		thread.join();
+		
+		Assert.assertEquals(bigValue, bound.get("key"));
+		Assert.assertEquals("small", bound.get("key2"));
+		Assert.assertNull(bound.get("key3"));
+		Map<TopicName, Object> document = store.readWholeDocument("key2");
+		Assert.assertEquals("small", document.get(topic));
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testIntegerValues() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		IntegerCodec valueCodec = new IntegerCodec();
+		SynchronousStore store = new SynchronousStore(factory);
+		BoundTopic<String, Integer> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		// Integer topics are given the raw bytes to decode without boxing.
+		Assert.assertTrue(reader.valueCodec.deserialize(new byte[] {1}) instanceof byte[]);
+		
+		// Use enough keys that the table needs to grow and delete some so that entries are shifted.
+		int count = 1000;
+		Thread thread = new Thread(()->{
+			reader.shim.create(1L);
+			for (int i = 0; i < count; ++i) {
+				reader.putBytes("key" + i, valueCodec.serialize(i * 1000), 2L + i);
+			}
+			for (int i = 0; i < count; i += 3) {
+				reader.deleteString("key" + i, 2L + count + i);
+			}
+		});
+		thread.start();
+		thread.join();
+		
+		for (int i = 0; i < count; ++i) {
+			Integer expected = (0 == (i % 3)) ? null : Integer.valueOf(i * 1000);
+			Assert.assertEquals(expected, bound.get("key" + i));
+		}
+		Assert.assertEquals(2000, store.readWholeDocument("key2").get(topic));
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+	@Test
+	public void testLazyValues() throws Throwable {
+		TestingFactory factory = new TestingFactory();
+		TopicName topic = TopicName.fromString("test");
+		ICodec<String> keyCodec = new StringCodec();
+		int[] decodeCount = new int[1];
+		ICodec<String> valueCodec = new ICodec<String>() {
+			private final StringCodec _codec = new StringCodec();
+			@Override
+			public String deserialize(byte[] bytes) {
+				decodeCount[0] += 1;
+				return _codec.deserialize(bytes);
+			}
+			@Override
+			public byte[] serialize(String object) {
+				return _codec.serialize(object);
+			}
+		};
+		StoreOptions options = new StoreOptions();
+		options.lazyValues = true;
+		SynchronousStore store = new SynchronousStore(factory, options);
+		BoundTopic<String, String> bound = store.attachToExistingTopic(topic, keyCodec, valueCodec);
+		TestingReader<?,?> reader = factory.getReaders().get(0);
+		Thread thread = new Thread(()->{
+			reader.shim.create(1L);
+			for (int i = 0; i < 100; ++i) {
+				reader.putString("key", "value" + i, 2L + i);
+			}
+		});
+		thread.start();
+		thread.join();
+		
+		// Nothing is decoded until it is read and then only once, since we memoize.
+		Assert.assertEquals(0, decodeCount[0]);
+		Assert.assertEquals("value99", bound.get("key"));
+		Assert.assertEquals("value99", bound.get("key"));
+		Assert.assertEquals(1, decodeCount[0]);
+		
+		store.close();
+		factory.verifyClosed(1);
+	}
+
+
+	private static void _waitUntilBlocked(Thread thread) throws InterruptedException {
+		// The thread has registered as a waiter once it is parked on the topic's condition.
+		while (Thread.State.WAITING != thread.getState()) {
+			Thread.sleep(1L);
+		}
+	}
 }
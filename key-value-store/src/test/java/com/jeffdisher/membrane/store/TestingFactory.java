@@ -18,8 +18,8 @@ public class TestingFactory implements IConnectionFactory {
 	private TestingWriter _writer;
 
 	@Override
-	public <K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec) throws IOException {
-		TestingReader<?,?> reader = new TestingReader<>(topic, shim, keyCodec, valueCodec);
+	public <K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, long previousConsequenceOffset) throws IOException {
+		TestingReader<?,?> reader = new TestingReader<>(topic, shim, keyCodec, valueCodec, previousConsequenceOffset);
 		_readers.add(reader);
 		return reader;
 	}
@@ -2,6 +2,8 @@ package com.jeffdisher.membrane.store;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Assert;
 
@@ -15,14 +17,16 @@ public class TestingReader<K, V> implements IReadingConnection {
 	public final IListenerTopicShim<K, V> shim;
 	public final ICodec<K> keyCodec;
 	public final ICodec<V> valueCodec;
+	public final long previousConsequenceOffset;
 
 	public boolean isClosed;
 
-	public TestingReader(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec) {
+	public TestingReader(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, long previousConsequenceOffset) {
 		this.topic = topic;
 		this.shim = shim;
 		this.keyCodec = keyCodec;
 		this.valueCodec = valueCodec;
+		this.previousConsequenceOffset = previousConsequenceOffset;
 	}
 
 	@Override
@@ -35,10 +39,43 @@ public class TestingReader<K, V> implements IReadingConnection {
 		K key = this.keyCodec.deserialize(keyString.getBytes(StandardCharsets.UTF_8));
 		V value = this.valueCodec.deserialize(valueString.getBytes(StandardCharsets.UTF_8));
 		this.shim.put(key, value, intentionOffset);
+		// We use the intention offset as the consequence offset in tests.
+		this.shim.checkpoint(intentionOffset);
+	}
+
+	public void putBytes(String keyString, byte[] valueBytes, long intentionOffset) {
+		K key = this.keyCodec.deserialize(keyString.getBytes(StandardCharsets.UTF_8));
+		V value = this.valueCodec.deserialize(valueBytes);
+		this.shim.put(key, value, intentionOffset);
+		// We use the intention offset as the consequence offset in tests.
+		this.shim.checkpoint(intentionOffset);
 	}
 
 	public void deleteString(String keyString, long intentionOffset) {
 		K key = this.keyCodec.deserialize(keyString.getBytes(StandardCharsets.UTF_8));
 		this.shim.delete(key, intentionOffset);
+		// We use the intention offset as the consequence offset in tests.
+		this.shim.checkpoint(intentionOffset);
+	}
+
+	/**
+	 * Applies the given string keys as one batch, at consecutive offsets starting at firstIntentionOffset:  a null
+	 * value means that key is deleted.
+	 */
+	public void batchStrings(String[] keyStrings, String[] valueStrings, long firstIntentionOffset) {
+		List<KeyChange<K, V>> changes = new ArrayList<>();
+		long offset = firstIntentionOffset;
+		for (int i = 0; i < keyStrings.length; ++i) {
+			K key = this.keyCodec.deserialize(keyStrings[i].getBytes(StandardCharsets.UTF_8));
+			if (null != valueStrings[i]) {
+				V value = this.valueCodec.deserialize(valueStrings[i].getBytes(StandardCharsets.UTF_8));
+				changes.add(KeyChange.put(key, value, offset));
+			} else {
+				changes.add(KeyChange.delete(key, offset));
+			}
+			offset += 1;
+		}
+		// We use the intention offset as the consequence offset in tests.
+		this.shim.applyBatch(changes, offset - 1);
 	}
 }
@@ -1,6 +1,7 @@
 package com.jeffdisher.membrane.store;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Assert;
 
@@ -12,6 +13,7 @@ import com.jeffdisher.membrane.store.connection.IWritingConnection;
 public class TestingWriter implements IWritingConnection {
 	public boolean isClosed;
 	public CommitInfo topicCreate;
+	public CommitInfo put;
 
 	@Override
 	public void close() throws IOException {
@@ -31,8 +33,12 @@ public class TestingWriter implements IWritingConnection {
 
 	@Override
 	public CommitInfo synchronousPut(TopicName name, byte[] key, byte[] value) {
-		Assert.fail("Not called in test");
-		return null;
+		Assert.assertNotNull(this.put);
+		try {
+			return this.put;
+		} finally {
+			this.put = null;
+		}
 	}
 
 	@Override
@@ -40,4 +46,19 @@ public class TestingWriter implements IWritingConnection {
 		Assert.fail("Not called in test");
 		return null;
 	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousCreateTopic(TopicName name, byte[] code, byte[] arguments) {
+		return CompletableFuture.completedFuture(synchronousCreateTopic(name, code, arguments));
+	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousPut(TopicName name, byte[] key, byte[] value) {
+		return CompletableFuture.completedFuture(synchronousPut(name, key, value));
+	}
+
+	@Override
+	public CompletableFuture<CommitInfo> asynchronousDelete(TopicName name, byte[] key) {
+		return CompletableFuture.completedFuture(synchronousDelete(name, key));
+	}
 }
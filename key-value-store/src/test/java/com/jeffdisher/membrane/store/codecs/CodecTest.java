@@ -0,0 +1,42 @@
+package com.jeffdisher.membrane.store.codecs;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class CodecTest {
+	@Test
+	public void testStringBuffers() throws Throwable {
+		StringCodec codec = new StringCodec();
+		// ASCII, 2-byte, 3-byte, a surrogate pair, and an unpaired surrogate.
+		String value = "key \u00e9\u20ac\ud83d\ude00\ud83d!";
+		byte[] encoded = codec.serialize(value);
+		
+		// A heap buffer is decoded straight from its array, which may be offset.
+		ByteBuffer heap = ByteBuffer.allocate(encoded.length + 2);
+		heap.put((byte)1);
+		heap.put(encoded);
+		heap.flip();
+		heap.get();
+		ByteBuffer slice = heap.slice();
+		Assert.assertEquals(codec.deserialize(encoded), codec.decode(slice));
+		Assert.assertEquals(0, slice.remaining());
+		
+		ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+		direct.put(encoded);
+		direct.flip();
+		Assert.assertEquals(codec.deserialize(encoded), codec.decode(direct));
+		Assert.assertEquals(0, direct.remaining());
+	}
+
+	@Test
+	public void testIntegerBuffers() throws Throwable {
+		IntegerCodec codec = new IntegerCodec();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(Integer.BYTES);
+		buffer.put(codec.serialize(-5));
+		buffer.flip();
+		Assert.assertEquals(-5, codec.decode(buffer).intValue());
+	}
+}
@@ -0,0 +1,190 @@
+package com.jeffdisher.membrane.store.connection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.jeffdisher.laminar.types.CommitInfo;
+import com.jeffdisher.laminar.types.TopicName;
+import com.jeffdisher.membrane.store.IListenerTopicShim;
+import com.jeffdisher.membrane.store.codecs.ICodec;
+
+
+public class WritingConnectionPoolTest {
+	private static final TopicName TOPIC = TopicName.fromString("test");
+
+	@Test
+	public void testKeyRouting() throws Throwable {
+		StubFactory factory = new StubFactory();
+		WritingConnectionPool pool = new WritingConnectionPool(factory, 4);
+		Assert.assertEquals(4, factory.writers.size());
+		
+		// Every write to a key goes to the same writer, whether it is a put or delete, synchronous or not.
+		for (int i = 0; i < 100; ++i) {
+			byte[] key = ("key" + i).getBytes(StandardCharsets.UTF_8);
+			pool.synchronousPut(TOPIC, key, new byte[0]);
+			pool.asynchronousPut(TOPIC, key, new byte[0]).get();
+			pool.synchronousDelete(TOPIC, key);
+			pool.asynchronousDelete(TOPIC, key).get();
+			int writerCount = 0;
+			for (StubWriter writer : factory.writers) {
+				int calls = writer.countCallsForKey("key" + i);
+				if (calls > 0) {
+					Assert.assertEquals(4, calls);
+					writerCount += 1;
+				}
+			}
+			Assert.assertEquals(1, writerCount);
+		}
+		// The keys are spread over all the writers.
+		for (StubWriter writer : factory.writers) {
+			Assert.assertTrue(writer.calls.size() > 0);
+		}
+		
+		pool.close();
+		factory.verifyClosed();
+	}
+
+	@Test
+	public void testLeastLoadedCreate() throws Throwable {
+		StubFactory factory = new StubFactory();
+		WritingConnectionPool pool = new WritingConnectionPool(factory, 3);
+		StubWriter writer0 = factory.writers.get(0);
+		StubWriter writer1 = factory.writers.get(1);
+		StubWriter writer2 = factory.writers.get(2);
+		
+		// Hold writes open on the first two writers so the create goes to the third.
+		writer0.holdAsync = true;
+		writer1.holdAsync = true;
+		CompletableFuture<CommitInfo> first = pool.asynchronousCreateTopic(TOPIC, new byte[0], new byte[0]);
+		CompletableFuture<CommitInfo> second = pool.asynchronousCreateTopic(TOPIC, new byte[0], new byte[0]);
+		Assert.assertEquals(1, writer0.calls.size());
+		Assert.assertEquals(1, writer1.calls.size());
+		pool.synchronousCreateTopic(TOPIC, new byte[0], new byte[0]);
+		Assert.assertEquals(1, writer2.calls.size());
+		
+		// Once the first writer's write completes, it is the least loaded again.
+		writer0.held.get(0).complete(CommitInfo.create(CommitInfo.Effect.VALID, 1L));
+		Assert.assertTrue(first.isDone());
+		writer0.holdAsync = false;
+		pool.synchronousCreateTopic(TOPIC, new byte[0], new byte[0]);
+		Assert.assertEquals(2, writer0.calls.size());
+		Assert.assertFalse(second.isDone());
+		writer1.held.get(0).complete(CommitInfo.create(CommitInfo.Effect.VALID, 2L));
+		Assert.assertTrue(second.isDone());
+		
+		pool.close();
+		factory.verifyClosed();
+	}
+
+	@Test
+	public void testCloseAll() throws Throwable {
+		StubFactory factory = new StubFactory();
+		WritingConnectionPool pool = new WritingConnectionPool(factory, 5);
+		Assert.assertEquals(5, factory.writers.size());
+		pool.close();
+		factory.verifyClosed();
+	}
+
+
+	private static class StubFactory implements IConnectionFactory {
+		public final List<StubWriter> writers = new ArrayList<>();
+		
+		@Override
+		public <K, V> IReadingConnection openListener(TopicName topic, IListenerTopicShim<K, V> shim, ICodec<K> keyCodec, ICodec<V> valueCodec, long previousConsequenceOffset) throws IOException {
+			throw new AssertionError("Not called in test");
+		}
+		
+		@Override
+		public IWritingConnection openWriter() throws IOException {
+			StubWriter writer = new StubWriter();
+			this.writers.add(writer);
+			return writer;
+		}
+		
+		public void verifyClosed() {
+			for (StubWriter writer : this.writers) {
+				Assert.assertTrue(writer.isClosed);
+			}
+		}
+	}
+
+
+	private static class StubWriter implements IWritingConnection {
+		private static final CommitInfo VALID = CommitInfo.create(CommitInfo.Effect.VALID, 1L);
+		
+		// Each call is recorded as its key (or "create" for topic creation).
+		public final List<String> calls = new ArrayList<>();
+		public final List<CompletableFuture<CommitInfo>> held = new ArrayList<>();
+		public boolean holdAsync;
+		public boolean isClosed;
+		
+		public int countCallsForKey(String key) {
+			int count = 0;
+			for (String call : this.calls) {
+				if (key.equals(call)) {
+					count += 1;
+				}
+			}
+			return count;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			Assert.assertFalse(this.isClosed);
+			this.isClosed = true;
+		}
+		
+		@Override
+		public CommitInfo synchronousCreateTopic(TopicName name, byte[] code, byte[] arguments) {
+			this.calls.add("create");
+			return VALID;
+		}
+		
+		@Override
+		public CommitInfo synchronousPut(TopicName name, byte[] key, byte[] value) {
+			this.calls.add(new String(key, StandardCharsets.UTF_8));
+			return VALID;
+		}
+		
+		@Override
+		public CommitInfo synchronousDelete(TopicName name, byte[] key) {
+			this.calls.add(new String(key, StandardCharsets.UTF_8));
+			return VALID;
+		}
+		
+		@Override
+		public CompletableFuture<CommitInfo> asynchronousCreateTopic(TopicName name, byte[] code, byte[] arguments) {
+			this.calls.add("create");
+			return _future();
+		}
+		
+		@Override
+		public CompletableFuture<CommitInfo> asynchronousPut(TopicName name, byte[] key, byte[] value) {
+			this.calls.add(new String(key, StandardCharsets.UTF_8));
+			return _future();
+		}
+		
+		@Override
+		public CompletableFuture<CommitInfo> asynchronousDelete(TopicName name, byte[] key) {
+			this.calls.add(new String(key, StandardCharsets.UTF_8));
+			return _future();
+		}
+		
+		private CompletableFuture<CommitInfo> _future() {
+			CompletableFuture<CommitInfo> future;
+			if (this.holdAsync) {
+				future = new CompletableFuture<>();
+				this.held.add(future);
+			} else {
+				future = CompletableFuture.completedFuture(VALID);
+			}
+			return future;
+		}
+	}
+}
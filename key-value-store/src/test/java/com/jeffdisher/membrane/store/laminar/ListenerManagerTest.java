@@ -0,0 +1,381 @@
+package com.jeffdisher.membrane.store.laminar;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.jeffdisher.laminar.types.Consequence;
+import com.jeffdisher.laminar.types.TopicName;
+import com.jeffdisher.membrane.store.IListenerTopicShim;
+import com.jeffdisher.membrane.store.KeyChange;
+import com.jeffdisher.membrane.store.codecs.ICodec;
+import com.jeffdisher.membrane.store.codecs.StringCodec;
+import com.jeffdisher.membrane.store.connection.IReadingConnection;
+
+
+public class ListenerManagerTest {
+	private static final StringCodec CODEC = new StringCodec();
+
+	@Test
+	public void testTopicOrder() throws Throwable {
+		// Topics fed at the same time share the workers but each is still applied in order, one worker at a time.
+		_runOrderTest(3, false, CODEC);
+	}
+
+	@Test
+	public void testReorderBuffer() throws Throwable {
+		// With parallel decode, some values take much longer to decode than the ones after them, but everything is still
+		// applied in the order received.
+		ICodec<String> slowCodec = new ICodec<String>() {
+			@Override
+			public String deserialize(byte[] bytes) {
+				String value = CODEC.deserialize(bytes);
+				if (value.startsWith("slow")) {
+					try {
+						Thread.sleep(2L);
+					} catch (InterruptedException e) {
+						throw new AssertionError(e);
+					}
+				}
+				return value;
+			}
+			@Override
+			public byte[] serialize(String object) {
+				return CODEC.serialize(object);
+			}
+		};
+		_runOrderTest(4, true, slowCodec);
+	}
+
+	@Test
+	public void testHotTopicCannotStarve() throws Throwable {
+		// With one worker, a topic with a long backlog still has to let the others have their turn.
+		_runStarvationTest(false);
+	}
+
+	@Test
+	public void testHotTopicCannotStarveWithParallelDecode() throws Throwable {
+		// The hot topic's decode tasks can't crowd out the others' turns, either.
+		_runStarvationTest(true);
+	}
+
+	@Test
+	public void testFailedTopic() throws Throwable {
+		// A topic whose consequence can't be applied stops there, without taking its worker with it or blocking close.
+		_runFailureTest(false);
+	}
+
+	@Test
+	public void testFailedDecode() throws Throwable {
+		// The same is true when the consequence fails to decode on another worker.
+		_runFailureTest(true);
+	}
+
+	@Test
+	public void testWorkerThreads() throws Throwable {
+		// However many topics there are, there are only as many workers as requested, and they stop with the last listener.
+		Map<TopicName, FakeSource> sources = new ConcurrentHashMap<>();
+		ListenerManager manager = _createManager(sources, 2, false);
+		List<IReadingConnection> listeners = new ArrayList<>();
+		for (int i = 0; i < 20; ++i) {
+			listeners.add(manager.subscribe(TopicName.fromString("topic" + i), new RecordingShim(new AtomicLong(0L)), CODEC, CODEC, 0L));
+		}
+		Assert.assertEquals(2, _countWorkers());
+		for (IReadingConnection listener : listeners) {
+			listener.close();
+		}
+		Assert.assertEquals(0, _countWorkers());
+	}
+
+
+	private static void _runStarvationTest(boolean parallelDecode) throws Throwable {
+		Map<TopicName, FakeSource> sources = new ConcurrentHashMap<>();
+		ListenerManager manager = _createManager(sources, 1, parallelDecode);
+		AtomicLong sequence = new AtomicLong(0L);
+		TopicName hotTopic = TopicName.fromString("hot");
+		TopicName coldTopic = TopicName.fromString("cold");
+		RecordingShim hotShim = new RecordingShim(sequence);
+		RecordingShim coldShim = new RecordingShim(sequence);
+		IReadingConnection hot = manager.subscribe(hotTopic, hotShim, CODEC, CODEC, 0L);
+		IReadingConnection cold = manager.subscribe(coldTopic, coldShim, CODEC, CODEC, 0L);
+		
+		int hotCount = 200000;
+		FakeSource hotSource = sources.get(hotTopic);
+		hotSource.send(ReceivedConsequence.other(Consequence.Type.TOPIC_CREATE, 1L, 1L));
+		for (int i = 0; i < hotCount; ++i) {
+			hotSource.send(ReceivedConsequence.put(2L + i, 2L + i, _bytes("key" + (i % 100)), _bytes("value")));
+		}
+		// Wait for the hot topic to start applying before the cold one has anything.
+		while (0 == hotShim.size()) {
+			Thread.sleep(1L);
+		}
+		FakeSource coldSource = sources.get(coldTopic);
+		coldSource.send(ReceivedConsequence.other(Consequence.Type.TOPIC_CREATE, 1L, 1L));
+		coldSource.send(ReceivedConsequence.put(2L, 2L, _bytes("key"), _bytes("value")));
+		hot.close();
+		cold.close();
+		
+		// The cold topic was applied while the hot topic still had plenty left.
+		Assert.assertEquals(hotCount + 1, hotShim.size());
+		Assert.assertEquals(2, coldShim.size());
+		long coldSequence = coldShim.sequenceOf(1);
+		int hotAfterCold = 0;
+		for (int i = 0; i < hotShim.size(); ++i) {
+			if (hotShim.sequenceOf(i) > coldSequence) {
+				hotAfterCold += 1;
+			}
+		}
+		Assert.assertTrue(hotAfterCold > (hotCount / 2));
+	}
+
+	private static void _runFailureTest(boolean parallelDecode) throws Throwable {
+		ICodec<String> failingCodec = new ICodec<String>() {
+			@Override
+			public String deserialize(byte[] bytes) {
+				String value = CODEC.deserialize(bytes);
+				if (value.startsWith("bad")) {
+					throw new IllegalArgumentException(value);
+				}
+				return value;
+			}
+			@Override
+			public byte[] serialize(String object) {
+				return CODEC.serialize(object);
+			}
+		};
+		Map<TopicName, FakeSource> sources = new ConcurrentHashMap<>();
+		ListenerManager manager = _createManager(sources, 1, parallelDecode);
+		AtomicLong sequence = new AtomicLong(0L);
+		TopicName failingTopic = TopicName.fromString("failing");
+		TopicName otherTopic = TopicName.fromString("other");
+		RecordingShim failingShim = new RecordingShim(sequence);
+		RecordingShim otherShim = new RecordingShim(sequence);
+		IReadingConnection failing = manager.subscribe(failingTopic, failingShim, CODEC, failingCodec, 0L);
+		IReadingConnection other = manager.subscribe(otherTopic, otherShim, CODEC, CODEC, 0L);
+		
+		FakeSource failingSource = sources.get(failingTopic);
+		failingSource.send(ReceivedConsequence.other(Consequence.Type.TOPIC_CREATE, 1L, 1L));
+		failingSource.send(ReceivedConsequence.put(2L, 2L, _bytes("key"), _bytes("good")));
+		while (2 != failingShim.size()) {
+			Thread.sleep(1L);
+		}
+		failingSource.send(ReceivedConsequence.put(3L, 3L, _bytes("key"), _bytes("bad")));
+		// More than the buffer holds, so the poller would block if they weren't dropped.
+		for (int i = 0; i < 5000; ++i) {
+			failingSource.send(ReceivedConsequence.put(4L + i, 4L + i, _bytes("key"), _bytes("good")));
+		}
+		
+		// The only worker is still there for the other topic.
+		FakeSource otherSource = sources.get(otherTopic);
+		otherSource.send(ReceivedConsequence.other(Consequence.Type.TOPIC_CREATE, 1L, 1L));
+		otherSource.send(ReceivedConsequence.put(2L, 2L, _bytes("key"), _bytes("value")));
+		failing.close();
+		other.close();
+		Assert.assertEquals(2, failingShim.size());
+		Assert.assertEquals(2, otherShim.size());
+		Assert.assertEquals(0, _countWorkers());
+	}
+
+	private static void _runOrderTest(int workerCount, boolean parallelDecode, ICodec<String> valueCodec) throws Throwable {
+		Map<TopicName, FakeSource> sources = new ConcurrentHashMap<>();
+		ListenerManager manager = _createManager(sources, workerCount, parallelDecode);
+		int topicCount = 4;
+		int consequenceCount = 3000;
+		AtomicLong sequence = new AtomicLong(0L);
+		List<TopicName> topics = new ArrayList<>();
+		List<RecordingShim> shims = new ArrayList<>();
+		List<IReadingConnection> listeners = new ArrayList<>();
+		List<List<String>> expected = new ArrayList<>();
+		for (int t = 0; t < topicCount; ++t) {
+			TopicName topic = TopicName.fromString("topic" + t);
+			RecordingShim shim = new RecordingShim(sequence);
+			topics.add(topic);
+			shims.add(shim);
+			listeners.add(manager.subscribe(topic, shim, CODEC, valueCodec, 0L));
+			expected.add(new ArrayList<>());
+		}
+		
+		// The topics are fed at the same time so they compete for the workers.
+		long intentionOffset = 1L;
+		for (int i = 0; i < consequenceCount; ++i) {
+			for (int t = 0; t < topicCount; ++t) {
+				long consequenceOffset = i + 1;
+				String key = "key" + (i % 10);
+				ReceivedConsequence consequence;
+				if (0 == i) {
+					consequence = ReceivedConsequence.other(Consequence.Type.TOPIC_CREATE, intentionOffset, consequenceOffset);
+					expected.get(t).add("create @" + intentionOffset);
+				} else if ((consequenceCount - 1) == i) {
+					consequence = ReceivedConsequence.other(Consequence.Type.TOPIC_DESTROY, intentionOffset, consequenceOffset);
+					expected.get(t).add("destroy @" + intentionOffset);
+				} else if (3 == (i % 7)) {
+					consequence = ReceivedConsequence.delete(intentionOffset, consequenceOffset, _bytes(key));
+					expected.get(t).add("delete " + key + " @" + intentionOffset);
+				} else if (0 == (i % 100)) {
+					// Config changes are skipped (but still use up an offset).
+					consequence = ReceivedConsequence.other(Consequence.Type.CONFIG_CHANGE, intentionOffset, consequenceOffset);
+				} else {
+					String value = ((0 == (i % 50)) ? "slow" : "value") + i;
+					consequence = ReceivedConsequence.put(intentionOffset, consequenceOffset, _bytes(key), _bytes(value));
+					expected.get(t).add("put " + key + "=" + value + " @" + intentionOffset);
+				}
+				sources.get(topics.get(t)).send(consequence);
+				intentionOffset += 1;
+			}
+		}
+		// Closing waits for everything received to be applied.
+		for (IReadingConnection listener : listeners) {
+			listener.close();
+		}
+		for (int t = 0; t < topicCount; ++t) {
+			Assert.assertEquals(expected.get(t), shims.get(t).events());
+		}
+	}
+
+	private static ListenerManager _createManager(Map<TopicName, FakeSource> sources, int workerCount, boolean parallelDecode) {
+		return new ListenerManager((TopicName topic, long previousConsequenceOffset) -> {
+			FakeSource source = new FakeSource();
+			sources.put(topic, source);
+			return source;
+		}, workerCount, parallelDecode);
+	}
+
+	private static int _countWorkers() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("Listener worker")) {
+				count += 1;
+			}
+		}
+		return count;
+	}
+
+	private static byte[] _bytes(String string) {
+		return string.getBytes(StandardCharsets.UTF_8);
+	}
+
+
+	private static class FakeSource implements IConsequenceSource {
+		private static final ReceivedConsequence CLOSED = ReceivedConsequence.other(Consequence.Type.CONFIG_CHANGE, -1L, -1L);
+		private final BlockingQueue<ReceivedConsequence> _queue = new LinkedBlockingQueue<>();
+		
+		public void send(ReceivedConsequence consequence) {
+			_queue.add(consequence);
+		}
+		
+		@Override
+		public ReceivedConsequence pollForNextConsequence() throws InterruptedException {
+			ReceivedConsequence consequence = _queue.take();
+			return (CLOSED != consequence)
+					? consequence
+					: null
+			;
+		}
+		
+		@Override
+		public void close() {
+			_queue.add(CLOSED);
+		}
+	}
+
+
+	/**
+	 * Records what is applied, in order, and the order it was applied relative to the other shims sharing the sequence.
+	 * It also fails if it is ever called concurrently or checkpointed out of order.
+	 */
+	private static class RecordingShim implements IListenerTopicShim<String, String> {
+		private final AtomicLong _sequence;
+		private final AtomicBoolean _isApplying = new AtomicBoolean(false);
+		private final List<String> _events = new ArrayList<>();
+		private final List<Long> _sequences = new ArrayList<>();
+		private long _lastCheckpoint = 0L;
+		
+		public RecordingShim(AtomicLong sequence) {
+			_sequence = sequence;
+		}
+		
+		@Override
+		public void delete(String key, long intentionOffset) {
+			_record("delete " + key + " @" + intentionOffset);
+		}
+		
+		@Override
+		public void put(String key, String value, long intentionOffset) {
+			_record("put " + key + "=" + value + " @" + intentionOffset);
+		}
+		
+		@Override
+		public void create(long intentionOffset) {
+			_record("create @" + intentionOffset);
+		}
+		
+		@Override
+		public void destroy(long intentionOffset) {
+			_record("destroy @" + intentionOffset);
+		}
+		
+		@Override
+		public void checkpoint(long consequenceOffset) {
+			_enter();
+			_checkpoint(consequenceOffset);
+			_exit();
+		}
+		
+		@Override
+		public void applyBatch(List<KeyChange<String, String>> changes, long lastConsequenceOffset) {
+			for (KeyChange<String, String> change : changes) {
+				if (change.isDelete) {
+					delete(change.key, change.intentionOffset);
+				} else {
+					put(change.key, change.value, change.intentionOffset);
+				}
+			}
+			_enter();
+			_checkpoint(lastConsequenceOffset);
+			_exit();
+		}
+		
+		public synchronized int size() {
+			return _events.size();
+		}
+		
+		public synchronized long sequenceOf(int index) {
+			return _sequences.get(index);
+		}
+		
+		public synchronized List<String> events() {
+			return new ArrayList<>(_events);
+		}
+		
+		private void _record(String event) {
+			_enter();
+			synchronized (this) {
+				_events.add(event);
+				_sequences.add(_sequence.incrementAndGet());
+			}
+			_exit();
+		}
+		
+		private void _checkpoint(long consequenceOffset) {
+			Assert.assertTrue(consequenceOffset > _lastCheckpoint);
+			_lastCheckpoint = consequenceOffset;
+		}
+		
+		private void _enter() {
+			Assert.assertTrue(_isApplying.compareAndSet(false, true));
+		}
+		
+		private void _exit() {
+			_isApplying.set(false);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.jeffdisher.membrane.rest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.ParseException;
+import com.jeffdisher.laminar.utils.Assert;
+
+
+/**
+ * Loads a stream of newline-delimited JSON records, each of the form {"field": <name>, "key": <key>, "value": <value>}.
+ * The stream is parsed one line at a time, as it arrives, and each record is written asynchronously so that writes are
+ * pipelined through the writer (and batched, if it batches), with a bound on how many can be in flight at once.
+ * Bad records and failed writes don't stop the load but are reported, by line number, once the stream is done.
+ */
+public class BulkIngest {
+	private static final int MAX_IN_FLIGHT = 1024;
+	private static final int MAX_REPORTED_FAILURES = 100;
+
+	private final IRecordWriter _writer;
+	private final Semaphore _inFlight;
+	private long _received;
+	private long _written;
+	private long _failed;
+	private final JsonArray _failures;
+
+	public BulkIngest(IRecordWriter writer) {
+		_writer = writer;
+		_inFlight = new Semaphore(MAX_IN_FLIGHT);
+		_received = 0L;
+		_written = 0L;
+		_failed = 0L;
+		_failures = new JsonArray();
+	}
+
+	/**
+	 * Writes every record in the stream, returning once they have all committed (or failed).
+	 * 
+	 * @param inputStream The NDJSON stream.
+	 * @return A report of how many records were written and which failed.
+	 * @throws IOException There was a problem reading the stream.
+	 */
+	public JsonObject run(InputStream inputStream) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		long lineNumber = 0L;
+		String line = reader.readLine();
+		while (null != line) {
+			lineNumber += 1;
+			if (!line.trim().isEmpty()) {
+				_received += 1;
+				_writeRecord(lineNumber, line);
+			}
+			line = reader.readLine();
+		}
+		// Wait for everything still in flight.
+		_acquire(MAX_IN_FLIGHT);
+		
+		JsonObject report = new JsonObject();
+		synchronized (this) {
+			report.add("received", _received);
+			report.add("written", _written);
+			report.add("failed", _failed);
+			report.add("failures", _failures);
+		}
+		return report;
+	}
+
+
+	private void _writeRecord(long lineNumber, String line) {
+		CompletableFuture<Boolean> future;
+		try {
+			JsonValue json = Json.parse(line);
+			if (!json.isObject()) {
+				throw new IllegalArgumentException("Record is not an object");
+			}
+			JsonObject record = json.asObject();
+			JsonValue field = record.get("field");
+			JsonValue key = record.get("key");
+			JsonValue value = record.get("value");
+			if ((null == field) || !field.isString() || (null == key) || !key.isString() || (null == value)) {
+				throw new IllegalArgumentException("Record requires string \"field\" and \"key\" and a \"value\"");
+			}
+			_acquire(1);
+			try {
+				future = _writer.write(field.asString(), key.asString(), value);
+			} catch (IllegalArgumentException e) {
+				// Nothing was sent so give back the permit.
+				_inFlight.release();
+				throw e;
+			}
+		} catch (ParseException e) {
+			_didFail(lineNumber, "Invalid JSON: " + e.getMessage());
+			future = null;
+		} catch (IllegalArgumentException e) {
+			_didFail(lineNumber, e.getMessage());
+			future = null;
+		}
+		if (null != future) {
+			future.whenComplete((Boolean isValid, Throwable error) -> {
+				if (null != error) {
+					_didFail(lineNumber, "Write failed: " + error.getMessage());
+				} else if (!isValid) {
+					_didFail(lineNumber, "Write was rejected by the topic");
+				} else {
+					_didWrite();
+				}
+				_inFlight.release();
+			});
+		}
+	}
+
+	private synchronized void _didWrite() {
+		_written += 1;
+	}
+
+	private synchronized void _didFail(long lineNumber, String error) {
+		_failed += 1;
+		if (_failures.size() < MAX_REPORTED_FAILURES) {
+			JsonObject failure = new JsonObject();
+			failure.add("line", lineNumber);
+			failure.add("error", error);
+			_failures.add(failure);
+		}
+	}
+
+	private void _acquire(int permits) {
+		try {
+			_inFlight.acquire(permits);
+		} catch (InterruptedException e) {
+			// We don't use interruption.
+			throw Assert.unexpected(e);
+		}
+	}
+
+
+	/**
+	 * Writes a single record, throwing IllegalArgumentException if the field is unknown or the value is the wrong type
+	 * for it.
+	 */
+	public static interface IRecordWriter {
+		CompletableFuture<Boolean> write(String field, String key, JsonValue value) throws IllegalArgumentException;
+	}
+}
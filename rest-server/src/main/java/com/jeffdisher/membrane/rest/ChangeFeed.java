@@ -0,0 +1,209 @@
+package com.jeffdisher.membrane.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.WriterConfig;
+import com.jeffdisher.laminar.types.TopicName;
+import com.jeffdisher.membrane.store.IChangeListener;
+
+
+/**
+ * Turns the changes applied by the store's listeners into JSON messages and passes them to the subscribed FeedSockets.
+ * The most recent changes are also kept so that a subscriber can resume after the last offset it saw in each field:  if
+ * that offset is older than what we kept of that field, the subscriber is first sent a "gap" message so it knows it
+ * must re-read its data.  The positions must be per-field since each field's listener publishes independently so,
+ * while each field's changes arrive in offset order, changes to different fields can arrive in any order.
+ * This is called on the listeners of all topics at once so it takes no locks:  each change claims the next sequence
+ * number in a ring of recent changes, subscribers are listed by the field they want, and each subscriber has its own
+ * bounded queue.  A change's JSON message is only built once a subscriber wants it.
+ */
+public class ChangeFeed implements IChangeListener {
+	private static final int RECENT_CHANGES = 4096;
+	private static final String GAP_MESSAGE = new JsonObject().add("op", "gap").toString(WriterConfig.MINIMAL);
+
+	// Change n is stored at n % RECENT_CHANGES, replacing change (n - RECENT_CHANGES).
+	private final AtomicReferenceArray<Change> _recent;
+	private final AtomicLong _nextSequence;
+	// The largest offset dropped from _recent, by field:  resuming the field from anything before this may miss changes.
+	private final ConcurrentMap<String, AtomicLong> _evictedOffsets;
+	private final List<FeedSocket> _allFieldSubscribers;
+	private final ConcurrentMap<String, List<FeedSocket>> _fieldSubscribers;
+
+	public ChangeFeed() {
+		_recent = new AtomicReferenceArray<>(RECENT_CHANGES);
+		_nextSequence = new AtomicLong(0L);
+		_evictedOffsets = new ConcurrentHashMap<>();
+		_allFieldSubscribers = new CopyOnWriteArrayList<>();
+		_fieldSubscribers = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public void didPut(TopicName topic, Object key, Supplier<Object> value, long intentionOffset) {
+		_publish("put", topic.string, key.toString(), value, intentionOffset);
+	}
+
+	@Override
+	public void didDelete(TopicName topic, Object key, long intentionOffset) {
+		_publish("delete", topic.string, key.toString(), null, intentionOffset);
+	}
+
+	@Override
+	public void didDestroy(TopicName topic, long intentionOffset) {
+		_publish("destroy", topic.string, null, null, intentionOffset);
+	}
+
+	/**
+	 * Starts sending matching changes to the subscriber.
+	 * 
+	 * @param subscriber The new subscriber.
+	 * @param resumeAfterOffsets If not null, the recent changes to each field after its offset here (or all of them, if
+	 * the field isn't here) are sent before any new ones.
+	 */
+	public void subscribe(FeedSocket subscriber, Map<String, Long> resumeAfterOffsets) {
+		if (null != resumeAfterOffsets) {
+			// The subscriber holds back the live changes until we have replayed everything published before it was
+			// added, at which point it drops the ones we replayed.
+			subscriber.startReplay();
+			_subscribersOf(subscriber.getField()).add(subscriber);
+			long endSequence = _nextSequence.get();
+			List<String> replay = new ArrayList<>();
+			for (long sequence = Math.max(0L, endSequence - RECENT_CHANGES); sequence < endSequence; ++sequence) {
+				Change change = _awaitStored(sequence);
+				// This is null if it has already been replaced, in which case it is counted in _evictedOffsets.
+				if ((null != change) && (change.intentionOffset > _resumeAfter(resumeAfterOffsets, change.field)) && subscriber.matches(change.field, change.key)) {
+					replay.add(change.getMessage());
+				}
+			}
+			boolean isMissingChanges = false;
+			for (Map.Entry<String, AtomicLong> evicted : _evictedOffsets.entrySet()) {
+				String field = evicted.getKey();
+				boolean isWanted = (null == subscriber.getField()) || subscriber.getField().equals(field);
+				isMissingChanges = isMissingChanges || (isWanted && (_resumeAfter(resumeAfterOffsets, field) < evicted.getValue().get()));
+			}
+			if (isMissingChanges) {
+				replay.add(0, GAP_MESSAGE);
+			}
+			subscriber.finishReplay(replay, endSequence);
+		} else {
+			_subscribersOf(subscriber.getField()).add(subscriber);
+		}
+	}
+
+	public void unsubscribe(FeedSocket subscriber) {
+		_subscribersOf(subscriber.getField()).remove(subscriber);
+	}
+
+
+	private void _publish(String op, String field, String key, Supplier<Object> value, long intentionOffset) {
+		long sequence = _nextSequence.getAndIncrement();
+		Change change = new Change(sequence, op, field, key, value, intentionOffset);
+		int index = (int)(sequence % RECENT_CHANGES);
+		// The change we replace may not be stored yet, if its publisher was delayed, so we wait for it:  this keeps
+		// every change in the ring until it is replaced, so subscribers never miss one.
+		Change previous = _recent.get(index);
+		while ((sequence >= RECENT_CHANGES) && ((null == previous) || (previous.sequence < (sequence - RECENT_CHANGES)))) {
+			Thread.yield();
+			previous = _recent.get(index);
+		}
+		if (null != previous) {
+			// We record the eviction before replacing it so that a subscriber which sees it missing will also see this.
+			_evictedOffsets.computeIfAbsent(previous.field, (String ignored) -> new AtomicLong(0L)).accumulateAndGet(previous.intentionOffset, Math::max);
+		}
+		_recent.set(index, change);
+
+		_offerAll(_allFieldSubscribers, change);
+		List<FeedSocket> fieldSubscribers = _fieldSubscribers.get(field);
+		if (null != fieldSubscribers) {
+			_offerAll(fieldSubscribers, change);
+		}
+	}
+
+	private Change _awaitStored(long sequence) {
+		// The publisher which claimed this sequence may not have stored it yet but it is about to.
+		int index = (int)(sequence % RECENT_CHANGES);
+		Change change = _recent.get(index);
+		while ((null == change) || (change.sequence < sequence)) {
+			Thread.yield();
+			change = _recent.get(index);
+		}
+		return (change.sequence == sequence)
+				? change
+				: null
+		;
+	}
+
+	private static long _resumeAfter(Map<String, Long> resumeAfterOffsets, String field) {
+		// A field without an offset has had nothing seen so everything we kept is replayed.
+		Long offset = resumeAfterOffsets.get(field);
+		return (null != offset)
+				? offset
+				: -1L
+		;
+	}
+
+	private List<FeedSocket> _subscribersOf(String field) {
+		return (null != field)
+				? _fieldSubscribers.computeIfAbsent(field, (String ignored) -> new CopyOnWriteArrayList<>())
+				: _allFieldSubscribers
+		;
+	}
+
+	private static void _offerAll(List<FeedSocket> subscribers, Change change) {
+		for (FeedSocket subscriber : subscribers) {
+			if (subscriber.matches(change.field, change.key)) {
+				subscriber.offer(change.sequence, change.getMessage());
+			}
+		}
+	}
+
+
+	private static class Change {
+		public final long sequence;
+		public final String op;
+		public final String field;
+		// Null for changes to the whole topic.
+		public final String key;
+		// Null unless this is a put.
+		public final Supplier<Object> value;
+		public final long intentionOffset;
+		// Built when first needed:  racing subscribers may both build it but they build the same message.
+		private volatile String _message;
+		
+		public Change(long sequence, String op, String field, String key, Supplier<Object> value, long intentionOffset) {
+			this.sequence = sequence;
+			this.op = op;
+			this.field = field;
+			this.key = key;
+			this.value = value;
+			this.intentionOffset = intentionOffset;
+		}
+		
+		public String getMessage() {
+			String message = _message;
+			if (null == message) {
+				JsonObject object = new JsonObject()
+						.add("op", this.op)
+						.add("field", this.field);
+				if (null != this.key) {
+					object.add("key", this.key);
+				}
+				object.add("offset", this.intentionOffset);
+				if (null != this.value) {
+					object.add("value", EntryPointManager.asJson(this.value.get()));
+				}
+				message = object.toString(WriterConfig.MINIMAL);
+				_message = message;
+			}
+			return message;
+		}
+	}
+}
@@ -1,28 +1,39 @@
 package com.jeffdisher.membrane.rest;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.ParseException;
 import com.eclipsesource.json.WriterConfig;
 import com.jeffdisher.breakwater.RestServer;
 import com.jeffdisher.breakwater.StringMultiMap;
 import com.jeffdisher.laminar.types.TopicName;
 import com.jeffdisher.laminar.utils.Assert;
 import com.jeffdisher.membrane.store.BoundTopic;
+import com.jeffdisher.membrane.store.ReadConsistency;
+import com.jeffdisher.membrane.store.ReadResult;
 import com.jeffdisher.membrane.store.SynchronousStore;
 import com.jeffdisher.membrane.store.codecs.ICodec;
 import com.jeffdisher.membrane.store.codecs.IntegerCodec;
 import com.jeffdisher.membrane.store.codecs.StringCodec;
+import com.jeffdisher.membrane.store.metrics.LatencyHistogram;
+import com.jeffdisher.membrane.store.metrics.MetricsRegistry;
+import com.jeffdisher.membrane.store.storage.Versioned;
 
 
 /**
@@ -32,47 +43,160 @@ import com.jeffdisher.membrane.store.codecs.StringCodec;
 public class EntryPointManager {
 	private static final int VALUE_SIZE_BYTES = 32 * 1024;
 	private static final StringCodec STRING_CODEC = new StringCodec();
+	private static final IntegerCodec INTEGER_CODEC = new IntegerCodec();
+	private static final int MAX_BATCH_KEYS = 1000;
+	// Requests can choose how fresh their reads must be ("eventual", "session", or "process" - the default) and PUT
+	// responses carry the session token to send back for a "session" read.
+	private static final String HEADER_CONSISTENCY = "X-Membrane-Consistency";
+	private static final String HEADER_SESSION = "X-Membrane-Session";
+	// Reads give up waiting after the server's read timeout (or the request's own) and then either return the stale
+	// value, with its lag in a header, or fail with a 503 if the request asked for "fail".
+	private static final String HEADER_READ_TIMEOUT = "X-Membrane-Read-Timeout";
+	private static final String HEADER_ON_TIMEOUT = "X-Membrane-On-Timeout";
+	private static final String HEADER_LAG = "X-Membrane-Lag";
 
 	private final RestServer _server;
 	private final SynchronousStore _store;
 	private final Object _lock;
 	private final Map<String, BoundTopic<String, ?>> _topics;
+	private final Map<String, Type> _types;
+	private final long _readTimeoutMillis;
+	private final MetricsRegistry _metrics;
 
-	public EntryPointManager(CountDownLatch stopLatch, RestServer server, SynchronousStore store) {
+	public EntryPointManager(CountDownLatch stopLatch, RestServer server, SynchronousStore store, long readTimeoutMillis, MetricsRegistry metrics) {
 		_server = server;
 		_store = store;
+		_readTimeoutMillis = readTimeoutMillis;
+		_metrics = metrics;
 		_lock = new Object();
 		_topics = new HashMap<>();
+		_types = new HashMap<>();
 		
 		// Install handlers for getting whole documents and posting new fields.
-		_server.addDeleteHandler("/exit", 0, (HttpServletRequest request, HttpServletResponse response, String[] variables) -> {
+		// The metrics of everything sharing the registry, in the Prometheus text format (this isn't timed itself).
+		_server.addGetHandler("/metrics", 0, (HttpServletRequest request, HttpServletResponse response, String[] variables) -> {
+			StringBuilder text = new StringBuilder();
+			_metrics.writePrometheus(text);
+			response.setContentType("text/plain;version=0.0.4;charset=utf-8");
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.getWriter().print(text);
+		});
+		LatencyHistogram exitTimer = _requestTimer("DELETE", "/exit");
+		_server.addDeleteHandler("/exit", 0, (HttpServletRequest request, HttpServletResponse response, String[] variables) -> _timed(exitTimer, () -> {
 			response.setContentType("text/plain;charset=utf-8");
 			response.setStatus(HttpServletResponse.SC_OK);
 			response.getWriter().println("Shutting down");
 			stopLatch.countDown();
-		});
-		_server.addGetHandler("/json", 1, (HttpServletRequest request, HttpServletResponse response, String[] variables) -> {
+		}));
+		LatencyHistogram documentTimer = _requestTimer("GET", "/json");
+		_server.addGetHandler("/json", 1, (HttpServletRequest request, HttpServletResponse response, String[] variables) -> _timed(documentTimer, () -> {
 			String key = variables[0];
-			Map<String, Object> document = _getDocument(key);
+			ReadConsistency consistency = _readConsistency(request);
+			if (null == consistency) {
+				_badReadHeaders(response);
+				return;
+			}
+			ReadResult<Map<String, Versioned<?>>> result = _getDocument(key, _readProjection(request), consistency);
+			if (_failIfStale(request, response, result)) {
+				return;
+			}
+			Map<String, Versioned<?>> document = result.value;
+			// The document's ETag is the vector of its fields' change offsets.
+			StringBuilder vector = new StringBuilder();
+			for (Map.Entry<String, Versioned<?>> entry : document.entrySet()) {
+				if (vector.length() > 0) {
+					vector.append(";");
+				}
+				vector.append(entry.getKey()).append(":").append(entry.getValue().changeOffset);
+			}
+			if (_isNotModified(request, response, vector.toString())) {
+				return;
+			}
 			response.setContentType("text/plain;charset=utf-8");
 			response.setStatus(HttpServletResponse.SC_OK);
 			JsonObject root = new JsonObject();
-			for (Map.Entry<String, Object> entry : document.entrySet()) {
-				Object value = entry.getValue();
-				// We know that the data is one of our predefined types but we don't have that information by this point.
-				JsonValue json;
-				if (value instanceof String) {
-					json = Json.value((String) value);
-				} else if (value instanceof Integer) {
-					json = Json.value((Integer) value);
-				} else {
-					throw Assert.unreachable("Unknown type in map: " + value.getClass().getName());
-				}
-				root.add(entry.getKey(), json);
+			for (Map.Entry<String, Versioned<?>> entry : document.entrySet()) {
+				root.add(entry.getKey(), asJson(entry.getValue().value));
 			}
 			response.getWriter().println(root.toString(WriterConfig.PRETTY_PRINT));
-		});
-		_server.addPostHandler("", 1, (HttpServletRequest request, HttpServletResponse response, String[] pathVariables, StringMultiMap<String> formVariables, StringMultiMap<byte[]> multiPart, byte[] rawPost) -> {
+		}));
+		// PUT a stream of NDJSON records to "/ingest" to write them all, pipelined (see BulkIngest).  This is a PUT since
+		// the PUT handler is given the body as a stream, instead of buffering it.
+		LatencyHistogram ingestTimer = _requestTimer("PUT", "/ingest");
+		_server.addPutHandler("/ingest", 0, (HttpServletRequest request, HttpServletResponse response, String[] variables, InputStream inputStream) -> _timed(ingestTimer, () -> {
+			BulkIngest ingest = new BulkIngest((String field, String key, JsonValue value) -> {
+				BoundTopic<String, ?> topic;
+				Type type;
+				synchronized(_lock) {
+					topic = _topics.get(field);
+					type = _types.get(field);
+				}
+				if (null == topic) {
+					throw new IllegalArgumentException("Unknown field: \"" + field + "\"");
+				}
+				byte[] rawValue = type.encodeJson(value);
+				if (null == rawValue) {
+					throw new IllegalArgumentException("Value is not a valid " + type.name() + " for field \"" + field + "\"");
+				}
+				return topic.putAsync(key, rawValue);
+			});
+			JsonObject report = ingest.run(inputStream);
+			response.setContentType("application/json;charset=utf-8");
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.getWriter().println(report.toString(WriterConfig.MINIMAL));
+		}));
+		// POST a JSON array of keys to "/batch/json" for their documents or to "/batch/<field>" for just that field.
+		LatencyHistogram batchTimer = _requestTimer("POST", "/batch");
+		_server.addPostHandler("/batch", 1, (HttpServletRequest request, HttpServletResponse response, String[] pathVariables, StringMultiMap<String> formVariables, StringMultiMap<byte[]> multiPart, byte[] rawPost) -> _timed(batchTimer, () -> {
+			List<String> keys = _parseBatchKeys(rawPost);
+			if (null == keys) {
+				response.setContentType("text/plain;charset=utf-8");
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				response.getWriter().println("POST body must be a JSON array of at most " + MAX_BATCH_KEYS + " string keys");
+				return;
+			}
+			ReadConsistency consistency = _readConsistency(request);
+			if (null == consistency) {
+				_badReadHeaders(response);
+				return;
+			}
+			String target = pathVariables[0];
+			JsonObject root = new JsonObject();
+			ReadResult<?> result;
+			if ("json".equals(target)) {
+				ReadResult<Map<String, Map<TopicName, Object>>> documents = _store.readDocuments(keys, _readProjection(request), consistency);
+				for (Map.Entry<String, Map<TopicName, Object>> entry : documents.value.entrySet()) {
+					JsonObject document = new JsonObject();
+					for (Map.Entry<TopicName, Object> field : entry.getValue().entrySet()) {
+						document.add(field.getKey().string, asJson(field.getValue()));
+					}
+					root.add(entry.getKey(), document);
+				}
+				result = documents;
+			} else {
+				BoundTopic<String, ?> topic;
+				synchronized(_lock) {
+					topic = _topics.get(target);
+				}
+				if (null == topic) {
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+					return;
+				}
+				ReadResult<? extends Map<String, ?>> values = topic.readAll(keys, consistency);
+				for (Map.Entry<String, ?> entry : values.value.entrySet()) {
+					root.add(entry.getKey(), asJson(entry.getValue()));
+				}
+				result = values;
+			}
+			if (_failIfStale(request, response, result)) {
+				return;
+			}
+			response.setContentType("application/json;charset=utf-8");
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.getWriter().println(root.toString(WriterConfig.MINIMAL));
+		}));
+		LatencyHistogram createFieldTimer = _requestTimer("POST", "/");
+		_server.addPostHandler("", 1, (HttpServletRequest request, HttpServletResponse response, String[] pathVariables, StringMultiMap<String> formVariables, StringMultiMap<byte[]> multiPart, byte[] rawPost) -> _timed(createFieldTimer, () -> {
 			// We get the topic name from the path variables.
 			String topicName = pathVariables[0];
 			// We get everything else from the multi-part post vars.
@@ -91,7 +215,7 @@ public class EntryPointManager {
 				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
 				response.getWriter().println("Required POST variables:  type, code, arguments");
 			}
-		});
+		}));
 	}
 
 	/**
@@ -110,45 +234,284 @@ public class EntryPointManager {
 		Assert.assertTrue(null != topic);
 		synchronized(_lock) {
 			_topics.put(name, topic);
+			_types.put(name, type);
 		}
-		_server.addGetHandler("/" + name, 1, (HttpServletRequest request, HttpServletResponse response, String[] variables) -> {
-			Object value = topic.get(variables[0]);
-			if (null != value) {
+		LatencyHistogram readFieldTimer = _requestTimer("GET", "/" + name);
+		_server.addGetHandler("/" + name, 1, (HttpServletRequest request, HttpServletResponse response, String[] variables) -> _timed(readFieldTimer, () -> {
+			ReadConsistency consistency = _readConsistency(request);
+			if (null == consistency) {
+				_badReadHeaders(response);
+				return;
+			}
+			ReadResult<? extends Versioned<?>> result = topic.readVersioned(variables[0], consistency);
+			if (_failIfStale(request, response, result)) {
+				return;
+			}
+			Versioned<?> versioned = result.value;
+			if (null != versioned) {
+				if (_isNotModified(request, response, Long.toString(versioned.changeOffset))) {
+					return;
+				}
 				response.setContentType("text/plain;charset=utf-8");
 				response.setStatus(HttpServletResponse.SC_OK);
-				response.getWriter().println(value);
+				response.getWriter().println(versioned.value);
 			} else {
 				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
 			}
-		});
-		_server.addPutHandler("/" + name, 1, (HttpServletRequest request, HttpServletResponse response, String[] variables, InputStream inputStream) -> {
-			byte[] buffer = new byte[VALUE_SIZE_BYTES];
-			int readSize = inputStream.read(buffer);
-			int start = 0;
-			while (-1 != readSize) {
-				start += readSize;
-				readSize = inputStream.read(buffer, start, buffer.length - start);
+		}));
+		LatencyHistogram writeFieldTimer = _requestTimer("PUT", "/" + name);
+		_server.addPutHandler("/" + name, 1, (HttpServletRequest request, HttpServletResponse response, String[] variables, InputStream inputStream) -> _timed(writeFieldTimer, () -> {
+			byte[] value = _readValue(request, inputStream);
+			if (null == value) {
+				// We reject the whole value rather than storing part of it.
+				response.setContentType("text/plain;charset=utf-8");
+				response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+				response.getWriter().println("Values are limited to " + VALUE_SIZE_BYTES + " bytes");
+				return;
+			}
+			long sessionToken = topic.putForSession(variables[0], value);
+			if (0L != sessionToken) {
+				response.setHeader(HEADER_SESSION, Long.toString(sessionToken));
 			}
-			byte[] value = new byte[start];
-			System.arraycopy(buffer, 0, value, 0, start);
-			topic.put(variables[0], value);
 			response.setContentType("text/plain;charset=utf-8");
 			response.setStatus(HttpServletResponse.SC_OK);
-			response.getWriter().println("Received " + start + " bytes");
-		});
+			response.getWriter().println("Received " + value.length + " bytes");
+		}));
 	}
 
 	/**
 	 * Called in response to a top-level GET to return the document elements, split across the store's topics.
 	 * 
 	 * @param key
+	 * @param projection The fields to read (null for all of them).
+	 * @param consistency
 	 * @return
 	 */
-	private Map<String, Object> _getDocument(String key) {
-		return _store.readWholeDocument(key).entrySet().stream().collect(Collectors.toMap(
-				entry -> entry.getKey().string,
-				entry -> entry.getValue())
-		);
+	private ReadResult<Map<String, Versioned<?>>> _getDocument(String key, List<TopicName> projection, ReadConsistency consistency) {
+		ReadResult<Map<TopicName, Versioned<?>>> result = _store.readVersionedDocument(key, projection, consistency);
+		// We sort the fields so that the document's ETag is stable.
+		Map<String, Versioned<?>> document = new TreeMap<>();
+		for (Map.Entry<TopicName, Versioned<?>> entry : result.value.entrySet()) {
+			document.put(entry.getKey().string, entry.getValue());
+		}
+		return new ReadResult<>(document, result.lagOffsets);
+	}
+
+	/**
+	 * Sets the response's ETag to the given version and, if it matches the request's If-None-Match, completes the
+	 * response as a 304.
+	 * 
+	 * @return True if the response was completed as "not modified".
+	 */
+	private static boolean _isNotModified(HttpServletRequest request, HttpServletResponse response, String version) {
+		String etag = "\"" + version + "\"";
+		response.setHeader("ETag", etag);
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		boolean isMatch = false;
+		if (null != ifNoneMatch) {
+			for (String candidate : ifNoneMatch.split(",")) {
+				String trimmed = candidate.trim();
+				// We only produce strong tags but clients may send them back as weak ones, which are still a match here.
+				if (trimmed.startsWith("W/")) {
+					trimmed = trimmed.substring(2);
+				}
+				isMatch |= "*".equals(trimmed) || etag.equals(trimmed);
+			}
+		}
+		if (isMatch) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		}
+		return isMatch;
+	}
+
+	static JsonValue asJson(Object value) {
+		// We know that the data is one of our predefined types but we don't have that information by this point.
+		JsonValue json;
+		if (value instanceof String) {
+			json = Json.value((String) value);
+		} else if (value instanceof Integer) {
+			json = Json.value((Integer) value);
+		} else {
+			throw Assert.unreachable("Unknown type in map: " + value.getClass().getName());
+		}
+		return json;
+	}
+
+	/**
+	 * Reads the optional "fields" parameter:  a comma-separated list of fields to limit a document to, so we only wait
+	 * for those.
+	 * 
+	 * @param request
+	 * @return The fields to read or null if the request didn't limit them.
+	 */
+	private static List<TopicName> _readProjection(HttpServletRequest request) {
+		String fields = request.getParameter("fields");
+		List<TopicName> projection = null;
+		if (null != fields) {
+			projection = new ArrayList<>();
+			for (String field : fields.split(",")) {
+				if (!field.isEmpty()) {
+					projection.add(TopicName.fromString(field));
+				}
+			}
+		}
+		return projection;
+	}
+
+	private static List<String> _parseBatchKeys(byte[] rawPost) {
+		List<String> keys = null;
+		if (null != rawPost) {
+			try {
+				JsonValue json = Json.parse(new String(rawPost, StandardCharsets.UTF_8));
+				if (json.isArray() && (json.asArray().size() <= MAX_BATCH_KEYS)) {
+					JsonArray array = json.asArray();
+					keys = new ArrayList<>();
+					for (int i = 0; (null != keys) && (i < array.size()); ++i) {
+						JsonValue element = array.get(i);
+						if (element.isString()) {
+							keys.add(element.asString());
+						} else {
+							keys = null;
+						}
+					}
+				}
+			} catch (ParseException e) {
+				// Just treat this as a bad request.
+				keys = null;
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Reads the consistency the request asked for from its headers.
+	 * 
+	 * @param request
+	 * @return The requested consistency or null if the headers were malformed.
+	 */
+	private ReadConsistency _readConsistency(HttpServletRequest request) {
+		String level = request.getHeader(HEADER_CONSISTENCY);
+		String session = request.getHeader(HEADER_SESSION);
+		String timeout = request.getHeader(HEADER_READ_TIMEOUT);
+		String onTimeout = request.getHeader(HEADER_ON_TIMEOUT);
+		long sessionToken = 0L;
+		long timeoutMillis = _readTimeoutMillis;
+		boolean isValid = (null == onTimeout) || "stale".equals(onTimeout) || "fail".equals(onTimeout);
+		try {
+			if (null != session) {
+				sessionToken = Long.parseLong(session);
+			}
+			if (null != timeout) {
+				timeoutMillis = Long.parseLong(timeout);
+				isValid &= (timeoutMillis >= 0L);
+			}
+		} catch (NumberFormatException e) {
+			isValid = false;
+		}
+		ReadConsistency consistency = null;
+		if (isValid) {
+			if (null == level) {
+				// A session token on its own implies a session read.
+				consistency = (null != session)
+						? ReadConsistency.session(sessionToken)
+						: ReadConsistency.PROCESS
+				;
+			} else if ("eventual".equals(level)) {
+				consistency = ReadConsistency.EVENTUAL;
+			} else if ("session".equals(level)) {
+				consistency = (null != session)
+						? ReadConsistency.session(sessionToken)
+						: null
+				;
+			} else if ("process".equals(level)) {
+				consistency = ReadConsistency.PROCESS;
+			}
+		}
+		if ((null != consistency) && (0L != timeoutMillis)) {
+			consistency = consistency.withMaxWait(timeoutMillis);
+		}
+		return consistency;
+	}
+
+	/**
+	 * Handles a read which gave up waiting:  either fails the request with a 503 or flags the response with the lag.
+	 * 
+	 * @return True if the request was failed (and the response is complete).
+	 */
+	private static boolean _failIfStale(HttpServletRequest request, HttpServletResponse response, ReadResult<?> result) throws IOException {
+		boolean didFail = false;
+		if (result.isStale()) {
+			if ("fail".equals(request.getHeader(HEADER_ON_TIMEOUT))) {
+				response.setContentType("text/plain;charset=utf-8");
+				response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				response.getWriter().println("Read timed out " + result.lagOffsets + " offsets behind");
+				didFail = true;
+			} else {
+				response.setHeader(HEADER_LAG, Long.toString(result.lagOffsets));
+			}
+		}
+		return didFail;
+	}
+
+	private static void _badReadHeaders(HttpServletResponse response) throws IOException {
+		response.setContentType("text/plain;charset=utf-8");
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		response.getWriter().println(HEADER_CONSISTENCY + " must be eventual, session (with " + HEADER_SESSION + "), or process, " + HEADER_READ_TIMEOUT + " a non-negative number, and " + HEADER_ON_TIMEOUT + " stale or fail");
+	}
+
+	/**
+	 * @return The value in the request body or null if it is larger than VALUE_SIZE_BYTES.
+	 */
+	private static byte[] _readValue(HttpServletRequest request, InputStream inputStream) throws IOException {
+		int contentLength = request.getContentLength();
+		byte[] value;
+		if (contentLength > VALUE_SIZE_BYTES) {
+			// We know it is too big without reading it.
+			value = null;
+		} else if (contentLength >= 0) {
+			// We know the size so read directly into the array we will pass to the store.
+			value = new byte[contentLength];
+			int start = _readFully(inputStream, value);
+			if (start < contentLength) {
+				value = Arrays.copyOf(value, start);
+			}
+		} else {
+			// Chunked so we need to buffer it, with room for one byte more than the limit so we can tell if it is over.
+			byte[] buffer = new byte[VALUE_SIZE_BYTES + 1];
+			int start = _readFully(inputStream, buffer);
+			value = (start <= VALUE_SIZE_BYTES)
+					? Arrays.copyOf(buffer, start)
+					: null
+			;
+		}
+		return value;
+	}
+
+	private static int _readFully(InputStream inputStream, byte[] buffer) throws IOException {
+		// Returns how much was read, which is less than the buffer size only if the stream ended.
+		int start = 0;
+		int readSize = 0;
+		while ((-1 != readSize) && (start < buffer.length)) {
+			readSize = inputStream.read(buffer, start, buffer.length - start);
+			if (-1 != readSize) {
+				start += readSize;
+			}
+		}
+		return start;
+	}
+
+	private LatencyHistogram _requestTimer(String method, String route) {
+		// We resolve the histogram once, when installing the handler, so requests don't contend on the registry.
+		return _metrics.histogram("membrane_http_request_seconds", "Time spent handling REST requests.", "method", method, "route", route);
+	}
+
+	private static void _timed(LatencyHistogram timer, IRequestBody body) throws IOException {
+		long startNanos = System.nanoTime();
+		try {
+			body.run();
+		} finally {
+			timer.record(System.nanoTime() - startNanos);
+		}
 	}
 
 	private String _asString(byte[] bytes) {
@@ -160,9 +523,14 @@ public class EntryPointManager {
 	}
 
 
+	private static interface IRequestBody {
+		void run() throws IOException;
+	}
+
+
 	private static enum Type {
 		STRING(STRING_CODEC),
-		INTEGER(new IntegerCodec()),
+		INTEGER(INTEGER_CODEC),
 		;
 		
 		public final ICodec<?> codec;
@@ -171,6 +539,33 @@ public class EntryPointManager {
 			this.codec = codec;
 		}
 		
+		/**
+		 * @return The encoded value or null if the JSON value isn't of this type.
+		 */
+		public byte[] encodeJson(JsonValue value) {
+			byte[] encoded = null;
+			switch (this) {
+			case STRING:
+				if (value.isString()) {
+					encoded = STRING_CODEC.serialize(value.asString());
+				}
+				break;
+			case INTEGER:
+				if (value.isNumber()) {
+					try {
+						encoded = INTEGER_CODEC.serialize(value.asInt());
+					} catch (NumberFormatException e) {
+						// Not an integer (or too big for one).
+						encoded = null;
+					}
+				}
+				break;
+			default:
+				throw Assert.unreachable("Unknown type: " + this);
+			}
+			return encoded;
+		}
+		
 		public static Type mapFromString(String name) {
 			Type type = null;
 			if (null != name) {
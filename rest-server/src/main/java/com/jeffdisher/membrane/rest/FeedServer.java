@@ -0,0 +1,139 @@
+package com.jeffdisher.membrane.rest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
+import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
+import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+
+import com.jeffdisher.laminar.utils.Assert;
+
+
+/**
+ * Serves the change feed as a WebSocket at "/feed", on its own port.  Subscribers choose what they want with the query
+ * parameters:  "field", "key" (exact match), "prefix" (key prefix), and "after" (where to resume).
+ * Since changes to different fields can arrive in any order, "after" is a list of the last offset seen in each field
+ * ("name:12,age:9"), or just an offset ("12") when subscribing to one field.
+ */
+public class FeedServer {
+	private final Server _server;
+
+	public FeedServer(int port, ChangeFeed feed) {
+		_server = new Server(port);
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		context.addServlet(new ServletHolder(new FeedServlet(feed)), "/feed");
+		_server.setHandler(context);
+	}
+
+	public void start() {
+		try {
+			_server.start();
+		} catch (Exception e) {
+			// We don't expect failures starting the server.
+			throw Assert.unexpected(e);
+		}
+	}
+
+	public void stop() {
+		try {
+			_server.stop();
+		} catch (Exception e) {
+			// We don't expect failures stopping the server.
+			throw Assert.unexpected(e);
+		}
+	}
+
+
+	// Returns null if the positions are invalid.
+	private static Map<String, Long> _parseResumeAfter(String after, String field) {
+		Map<String, Long> offsets = new HashMap<>();
+		if (after.contains(":")) {
+			for (String position : after.split(",")) {
+				int separator = position.lastIndexOf(':');
+				long offset = (separator > 0)
+						? _parseOffset(position.substring(separator + 1))
+						: -1L
+				;
+				if ((null != offsets) && (offset >= 0L)) {
+					offsets.put(position.substring(0, separator), offset);
+				} else {
+					offsets = null;
+				}
+			}
+		} else if (null != field) {
+			long offset = _parseOffset(after);
+			if (offset >= 0L) {
+				offsets.put(field, offset);
+			} else {
+				offsets = null;
+			}
+		} else {
+			// A single offset can't say where to resume each field.
+			offsets = null;
+		}
+		return offsets;
+	}
+
+	// Returns a negative number if this isn't a valid offset.
+	private static long _parseOffset(String string) {
+		long offset;
+		try {
+			offset = Long.parseLong(string);
+		} catch (NumberFormatException e) {
+			offset = -1L;
+		}
+		return offset;
+	}
+
+	private static String _getParameter(Map<String, List<String>> parameters, String name) {
+		List<String> values = parameters.get(name);
+		return ((null != values) && !values.isEmpty())
+				? values.get(0)
+				: null
+		;
+	}
+
+
+	private static class FeedServlet extends WebSocketServlet {
+		private static final long serialVersionUID = 1L;
+		private final ChangeFeed _feed;
+		
+		public FeedServlet(ChangeFeed feed) {
+			_feed = feed;
+		}
+		
+		@Override
+		public void configure(WebSocketServletFactory factory) {
+			factory.setCreator((ServletUpgradeRequest request, ServletUpgradeResponse response) -> {
+				Map<String, List<String>> parameters = request.getParameterMap();
+				String field = _getParameter(parameters, "field");
+				String after = _getParameter(parameters, "after");
+				Map<String, Long> resumeAfterOffsets = (null != after)
+						? _parseResumeAfter(after, field)
+						: null
+				;
+				FeedSocket socket = null;
+				if ((null == after) || (null != resumeAfterOffsets)) {
+					socket = new FeedSocket(_feed, field, _getParameter(parameters, "key"), _getParameter(parameters, "prefix"), resumeAfterOffsets);
+				} else {
+					try {
+						response.sendError(HttpServletResponse.SC_BAD_REQUEST, "\"after\" must be \"<field>:<offset>\" pairs, separated by commas, or a single offset with \"field\" (offsets are non-negative)");
+					} catch (IOException e) {
+						// The client will just see the upgrade fail.
+					}
+				}
+				return socket;
+			});
+		}
+	}
+}
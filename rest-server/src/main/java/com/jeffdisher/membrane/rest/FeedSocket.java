@@ -0,0 +1,243 @@
+package com.jeffdisher.membrane.rest;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+
+/**
+ * A single change feed subscriber, filtered by field (null for all fields) and either exact key or key prefix (both null
+ * for all keys).
+ * Messages are queued and sent asynchronously, one at a time, so offering a message never blocks.  If the queue fills,
+ * the subscriber is too slow to keep up so we close it, telling it to reconnect and resume from the last offsets it saw.
+ * While the ChangeFeed replays recent changes to a resuming subscriber, new changes are held back (along with their
+ * sequence numbers in the feed) so the replay can be sent first and the changes it already covered dropped.
+ */
+public class FeedSocket extends WebSocketAdapter implements WriteCallback {
+	private static final int MAX_PENDING_MESSAGES = 8192;
+
+	private final ChangeFeed _feed;
+	private final String _field;
+	private final String _key;
+	private final String _prefix;
+	// Null if not resuming.
+	private final Map<String, Long> _resumeAfterOffsets;
+	private final Queue<String> _pending;
+	// Non-null only while replaying.
+	private Queue<HeldMessage> _held;
+	private boolean _isClosed;
+	private boolean _isSending;
+	// Used to turn a write which completes within sendString() into another pass of the _sendNext() loop, not recursion.
+	private boolean _isInSend;
+	private boolean _didCompleteInSend;
+
+	public FeedSocket(ChangeFeed feed, String field, String key, String prefix, Map<String, Long> resumeAfterOffsets) {
+		_feed = feed;
+		_field = field;
+		_key = key;
+		_prefix = prefix;
+		_resumeAfterOffsets = resumeAfterOffsets;
+		_pending = new ArrayDeque<>();
+	}
+
+	@Override
+	public void onWebSocketConnect(Session session) {
+		super.onWebSocketConnect(session);
+		_feed.subscribe(this, _resumeAfterOffsets);
+	}
+
+	@Override
+	public void onWebSocketClose(int statusCode, String reason) {
+		_feed.unsubscribe(this);
+		synchronized (this) {
+			_close();
+		}
+		super.onWebSocketClose(statusCode, reason);
+	}
+
+	@Override
+	public void onWebSocketError(Throwable cause) {
+		_feed.unsubscribe(this);
+		synchronized (this) {
+			_close();
+		}
+		super.onWebSocketError(cause);
+	}
+
+	/**
+	 * @return The field this subscriber wants (null for all fields).
+	 */
+	public String getField() {
+		return _field;
+	}
+
+	/**
+	 * @param field The field which changed.
+	 * @param key The key which changed (null if the whole field changed).
+	 * @return True if this subscriber wants the change.
+	 */
+	public boolean matches(String field, String key) {
+		boolean isFieldMatch = (null == _field) || _field.equals(field);
+		boolean isKeyMatch = (null == key)
+				|| (((null == _key) || _key.equals(key)) && ((null == _prefix) || key.startsWith(_prefix)));
+		return isFieldMatch && isKeyMatch;
+	}
+
+	/**
+	 * Queues the message to be sent, without blocking.
+	 * 
+	 * @param sequence The sequence number of the change in the feed.
+	 * @param message The message describing the change.
+	 */
+	public void offer(long sequence, String message) {
+		boolean didOverflow = false;
+		synchronized (this) {
+			if (!_isClosed) {
+				if (null != _held) {
+					if ((_held.size() + _pending.size()) < MAX_PENDING_MESSAGES) {
+						_held.add(new HeldMessage(sequence, message));
+					} else {
+						didOverflow = true;
+					}
+				} else {
+					didOverflow = !_enqueue(message);
+				}
+				if (didOverflow) {
+					_close();
+				}
+			}
+		}
+		_startSendingOrClose(didOverflow);
+	}
+
+	/**
+	 * Called before the ChangeFeed adds this subscriber, to hold back the changes offered until the replay is finished.
+	 */
+	public synchronized void startReplay() {
+		_held = new ArrayDeque<>();
+	}
+
+	/**
+	 * Sends the replayed messages and then the held changes which weren't replayed.
+	 * 
+	 * @param replay The messages to send first.
+	 * @param replayedBeforeSequence Every change before this sequence number was considered for the replay.
+	 */
+	public void finishReplay(List<String> replay, long replayedBeforeSequence) {
+		boolean didOverflow = false;
+		synchronized (this) {
+			if (!_isClosed) {
+				for (String message : replay) {
+					didOverflow = didOverflow || !_enqueue(message);
+				}
+				for (HeldMessage held : _held) {
+					if (held.sequence >= replayedBeforeSequence) {
+						didOverflow = didOverflow || !_enqueue(held.message);
+					}
+				}
+				if (didOverflow) {
+					_close();
+				}
+			}
+			_held = null;
+		}
+		_startSendingOrClose(didOverflow);
+	}
+
+	@Override
+	public void writeSuccess() {
+		boolean shouldContinue;
+		synchronized (this) {
+			shouldContinue = !_isInSend;
+			_didCompleteInSend = _isInSend;
+		}
+		if (shouldContinue) {
+			_sendNext();
+		}
+	}
+
+	@Override
+	public void writeFailed(Throwable x) {
+		// The connection is broken so just stop sending - we will be told it closed.
+		synchronized (this) {
+			_close();
+			_isSending = false;
+		}
+	}
+
+
+	// Returns false if there was no room for the message.
+	private boolean _enqueue(String message) {
+		boolean didAdd = (_pending.size() < MAX_PENDING_MESSAGES);
+		if (didAdd) {
+			_pending.add(message);
+		}
+		return didAdd;
+	}
+
+	private void _close() {
+		_isClosed = true;
+		_pending.clear();
+		_held = null;
+	}
+
+	private void _startSendingOrClose(boolean didOverflow) {
+		boolean shouldSend = false;
+		synchronized (this) {
+			if (!_isClosed && !_isSending && !_pending.isEmpty()) {
+				_isSending = true;
+				shouldSend = true;
+			}
+		}
+		if (shouldSend) {
+			_sendNext();
+		}
+		if (didOverflow) {
+			// This only starts the close handshake so it doesn't block us.
+			getSession().close(StatusCode.TRY_AGAIN_LATER, "Subscriber too slow:  reconnect and resume after the last offsets received");
+		}
+	}
+
+	private void _sendNext() {
+		boolean keepSending = true;
+		while (keepSending) {
+			String next;
+			synchronized (this) {
+				next = _isClosed ? null : _pending.poll();
+				if (null == next) {
+					_isSending = false;
+				} else {
+					_isInSend = true;
+					_didCompleteInSend = false;
+				}
+			}
+			if (null != next) {
+				getRemote().sendString(next, this);
+				synchronized (this) {
+					_isInSend = false;
+					// If the write already completed, we send the next one, otherwise writeSuccess() will.
+					keepSending = _didCompleteInSend;
+				}
+			} else {
+				keepSending = false;
+			}
+		}
+	}
+
+
+	private static class HeldMessage {
+		public final long sequence;
+		public final String message;
+		
+		public HeldMessage(long sequence, String message) {
+			this.sequence = sequence;
+			this.message = message;
+		}
+	}
+}
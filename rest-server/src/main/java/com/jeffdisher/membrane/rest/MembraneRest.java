@@ -1,23 +1,41 @@
 package com.jeffdisher.membrane.rest;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 import com.jeffdisher.breakwater.RestServer;
 import com.jeffdisher.laminar.utils.Assert;
+import com.jeffdisher.membrane.store.StoreOptions;
 import com.jeffdisher.membrane.store.SynchronousStore;
 import com.jeffdisher.membrane.store.connection.IConnectionFactory;
 import com.jeffdisher.membrane.store.laminar.LaminarConnectionFactory;
 import com.jeffdisher.membrane.store.local.LocalFactory;
+import com.jeffdisher.membrane.store.metrics.MetricsRegistry;
 
 
 public class MembraneRest {
 	private static final String ARG_HOSTNAME = "hostname";
 	private static final String ARG_PORT = "port";
 	private static final String ARG_LOCAL_ONLY = "local_only";
+	private static final String ARG_BATCH_SIZE = "batch_size";
+	private static final String ARG_MAX_LINGER_MILLIS = "max_linger_millis";
+	private static final String ARG_WRITER_COUNT = "writer_count";
+	private static final String ARG_SNAPSHOT_DIR = "snapshot_dir";
+	private static final String ARG_OFF_HEAP = "off_heap";
+	private static final String ARG_DECODE_ON_READ = "decode_on_read";
+	private static final String ARG_PARALLEL_DECODE = "parallel_decode";
+	private static final String ARG_SHARED_KEYS = "shared_keys";
+	private static final String ARG_READ_TIMEOUT_MILLIS = "read_timeout_millis";
+	private static final String ARG_FEED_PORT = "feed_port";
+	// Options without a short form here can only be given in their long form.
+	private static final Map<String, String> SHORT_FORMS = _buildShortForms();
 
 	public static void main(String[] args) {
 		// The normal entry-point doesn't care about the latch so just create anything.
@@ -34,6 +52,31 @@ public class MembraneRest {
 		String hostname = _getArgument(args, ARG_HOSTNAME);
 		String portString = _getArgument(args, ARG_PORT);
 		boolean localOnly = _getFlag(args, ARG_LOCAL_ONLY);
+		int batchSize = _getIntArgument(args, ARG_BATCH_SIZE, 1);
+		int maxLingerMillis = _getIntArgument(args, ARG_MAX_LINGER_MILLIS, 0);
+		int writerCount = _getIntArgument(args, ARG_WRITER_COUNT, 1);
+		String snapshotDirectory = _getArgument(args, ARG_SNAPSHOT_DIR);
+		boolean offHeap = _getFlag(args, ARG_OFF_HEAP);
+		boolean decodeOnRead = _getFlag(args, ARG_DECODE_ON_READ);
+		boolean parallelDecode = _getFlag(args, ARG_PARALLEL_DECODE);
+		boolean sharedKeys = _getFlag(args, ARG_SHARED_KEYS);
+		int readTimeoutMillis = _getIntArgument(args, ARG_READ_TIMEOUT_MILLIS, 0);
+		int feedPort = _getIntArgument(args, ARG_FEED_PORT, 0);
+		if (batchSize < 1) {
+			_failStart("Batch size must be positive");
+		}
+		if (maxLingerMillis < 0) {
+			_failStart("Max linger cannot be negative");
+		}
+		if (writerCount < 1) {
+			_failStart("Writer count must be positive");
+		}
+		if (readTimeoutMillis < 0) {
+			_failStart("Read timeout cannot be negative");
+		}
+		if ((feedPort < 0) || (feedPort > 65535)) {
+			_failStart("Feed port must be a valid port number");
+		}
 		if (!localOnly && (null == hostname)) {
 			_failStart("Missing hostname");
 		}
@@ -41,6 +84,9 @@ public class MembraneRest {
 			_failStart("Missing port");
 		}
 		
+		// Everything records its metrics in the same registry so that they are served together.
+		MetricsRegistry metrics = new MetricsRegistry();
+		
 		// Create the appropriate factory.
 		IConnectionFactory factory;
 		if (localOnly) {
@@ -58,13 +104,22 @@ public class MembraneRest {
 			} catch (UnknownHostException e) {
 				throw _failStart("Unknown host: \"" + hostname + "\"");
 			}
-			factory = new LaminarConnectionFactory(server);
+			factory = new LaminarConnectionFactory(server, batchSize, maxLingerMillis, parallelDecode, metrics);
 		}
 		
 		// Create the store and start the server.
+		StoreOptions options = new StoreOptions();
+		options.writerCount = writerCount;
+		if (null != snapshotDirectory) {
+			options.snapshotDirectory = new File(snapshotDirectory);
+		}
+		options.offHeapValues = offHeap;
+		options.lazyValues = decodeOnRead;
+		options.sharedKeys = sharedKeys;
+		options.metrics = metrics;
 		SynchronousStore store;
 		try {
-			store = new SynchronousStore(factory);
+			store = new SynchronousStore(factory, options);
 		} catch (IOException e) {
 			throw _failStart("IO Exception while starting store: " + e.getLocalizedMessage());
 		}
@@ -73,9 +128,18 @@ public class MembraneRest {
 		// We don't support any static content delivery.
 		RestServer server = new RestServer(8080, null);
 		CountDownLatch stopLatch = new CountDownLatch(1);
-		new EntryPointManager(stopLatch, server, store);
+		new EntryPointManager(stopLatch, server, store, readTimeoutMillis, metrics);
 		server.start();
 		
+		// If requested, also serve the change feed.
+		FeedServer feedServer = null;
+		if (0 != feedPort) {
+			ChangeFeed feed = new ChangeFeed();
+			store.addChangeListener(feed);
+			feedServer = new FeedServer(feedPort, feed);
+			feedServer.start();
+		}
+		
 		// Count-down the latch in case we are part of a testing environment.
 		bindLatch.countDown();
 		
@@ -86,6 +150,9 @@ public class MembraneRest {
 			// We don't use interruption.
 			throw Assert.unexpected(e);
 		}
+		if (null != feedServer) {
+			feedServer.stop();
+		}
 		server.stop();
 		try {
 			store.close();
@@ -101,24 +168,56 @@ public class MembraneRest {
 		return new InetSocketAddress(ip, port);
 	}
 
+	private static Map<String, String> _buildShortForms() {
+		// These are explicit, not derived from the name, so that a new option can't take over an existing short form.
+		Map<String, String> shortForms = new HashMap<>();
+		shortForms.put(ARG_HOSTNAME, "-h");
+		shortForms.put(ARG_PORT, "-p");
+		shortForms.put(ARG_LOCAL_ONLY, "-l");
+		shortForms.put(ARG_BATCH_SIZE, "-b");
+		shortForms.put(ARG_MAX_LINGER_MILLIS, "-m");
+		shortForms.put(ARG_WRITER_COUNT, "-w");
+		shortForms.put(ARG_SNAPSHOT_DIR, "-s");
+		shortForms.put(ARG_OFF_HEAP, "-o");
+		shortForms.put(ARG_DECODE_ON_READ, "-d");
+		shortForms.put(ARG_READ_TIMEOUT_MILLIS, "-r");
+		shortForms.put(ARG_FEED_PORT, "-f");
+		// No two options can share a short form.
+		Assert.assertTrue(new HashSet<>(shortForms.values()).size() == shortForms.size());
+		return shortForms;
+	}
+
 	private static String _getArgument(String[] args, String flag) {
 		String check1 = "--" + flag;
-		String check2 = "-" + flag.substring(0, 1);
+		String check2 = SHORT_FORMS.get(flag);
 		String match = null;
 		for (int i = 0; (null == match) && (i < (args.length - 1)); ++i) {
-			if (check1.equals(args[i]) || check2.equals(args[i])) {
+			if (check1.equals(args[i]) || args[i].equals(check2)) {
 				match = args[i+1];
 			}
 		}
 		return match;
 	}
 
+	private static int _getIntArgument(String[] args, String flag, int defaultValue) {
+		String string = _getArgument(args, flag);
+		int value = defaultValue;
+		if (null != string) {
+			try {
+				value = Integer.parseInt(string);
+			} catch (NumberFormatException e) {
+				throw _failStart("--" + flag + " not a number: \"" + string + "\"");
+			}
+		}
+		return value;
+	}
+
 	private static boolean _getFlag(String[] args, String flag) {
 		String check1 = "--" + flag;
-		String check2 = "-" + flag.substring(0, 1);
+		String check2 = SHORT_FORMS.get(flag);
 		boolean match = false;
 		for (int i = 0; !match && (i < args.length); ++i) {
-			if (check1.equals(args[i]) || check2.equals(args[i])) {
+			if (check1.equals(args[i]) || args[i].equals(check2)) {
 				match = true;
 			}
 		}
@@ -127,7 +226,7 @@ public class MembraneRest {
 
 	private static RuntimeException _failStart(String problem) {
 		System.err.println(problem);
-		System.err.println("Usage: MembraneRest (--hostname <hostname> --port <port>)|--local_only");
+		System.err.println("Usage: MembraneRest ((--hostname <hostname> --port <port> [--batch_size <writes>] [--max_linger_millis <millis>] [--parallel_decode])|--local_only) [--writer_count <connections>] [--snapshot_dir <directory>] [--off_heap] [--decode_on_read] [--shared_keys] [--read_timeout_millis <millis>] [--feed_port <port>]");
 		System.exit(1);
 		// We never reach this point but it allows us to throw in the caller so flow control is explicit.
 		throw new RuntimeException();
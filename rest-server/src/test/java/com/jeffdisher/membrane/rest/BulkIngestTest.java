@@ -0,0 +1,167 @@
+package com.jeffdisher.membrane.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+
+public class BulkIngestTest {
+	@Test
+	public void testIncrementalParsing() throws Throwable {
+		BlockingQueue<String> writes = new LinkedBlockingQueue<>();
+		BulkIngest ingest = new BulkIngest((String field, String key, JsonValue value) -> {
+			writes.add(field + "/" + key + "=" + value.asString());
+			return CompletableFuture.completedFuture(true);
+		});
+		PipedOutputStream output = new PipedOutputStream();
+		PipedInputStream input = new PipedInputStream(output);
+		JsonObject[] report = new JsonObject[1];
+		Thread ingestThread = new Thread(() -> {
+			try {
+				report[0] = ingest.run(input);
+			} catch (Throwable t) {
+				throw new AssertionError(t);
+			}
+		});
+		ingestThread.start();
+		
+		// Each record is written as soon as its line arrives, before the rest of the body.
+		output.write("{\"field\":\"name\",\"key\":\"user1\",\"value\":\"User 1\"}\n".getBytes(StandardCharsets.UTF_8));
+		output.flush();
+		Assert.assertEquals("name/user1=User 1", writes.poll(10L, TimeUnit.SECONDS));
+		output.write("{\"field\":\"name\",\"key\":\"user2\",\"value\":\"User 2\"}\n\n".getBytes(StandardCharsets.UTF_8));
+		output.flush();
+		Assert.assertEquals("name/user2=User 2", writes.poll(10L, TimeUnit.SECONDS));
+		output.write("{\"field\":\"name\",\"key\":\"user3\",\"value\":\"User 3\"}".getBytes(StandardCharsets.UTF_8));
+		output.close();
+		ingestThread.join();
+		Assert.assertEquals("name/user3=User 3", writes.poll());
+		
+		Assert.assertEquals(3L, report[0].get("received").asLong());
+		Assert.assertEquals(3L, report[0].get("written").asLong());
+		Assert.assertEquals(0L, report[0].get("failed").asLong());
+		Assert.assertTrue(report[0].get("failures").asArray().isEmpty());
+	}
+
+	@Test
+	public void testFailureReport() throws Throwable {
+		BulkIngest ingest = new BulkIngest((String field, String key, JsonValue value) -> {
+			if (!"name".equals(field)) {
+				throw new IllegalArgumentException("Unknown field: " + field);
+			}
+			// Writes of "reject" are rejected by the topic, and "error" fails to commit.
+			CompletableFuture<Boolean> future = new CompletableFuture<>();
+			if ("error".equals(key)) {
+				future.completeExceptionally(new RuntimeException("connection lost"));
+			} else {
+				future.complete(!"reject".equals(key));
+			}
+			return future;
+		});
+		String body = "{\"field\":\"name\",\"key\":\"user1\",\"value\":\"User 1\"}\n"
+				+ "{\"field\":\"name\",\"key\":\n"
+				+ "{\"field\":\"unknown\",\"key\":\"user1\",\"value\":\"x\"}\n"
+				+ "[1,2]\n"
+				+ "{\"field\":\"name\",\"key\":\"user2\"}\n"
+				+ "\n"
+				+ "{\"field\":\"name\",\"key\":\"reject\",\"value\":\"x\"}\n"
+				+ "{\"field\":\"name\",\"key\":\"error\",\"value\":\"x\"}\n"
+				+ "{\"field\":\"name\",\"key\":\"user3\",\"value\":\"User 3\"}\n"
+		;
+		JsonObject report = ingest.run(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+		
+		// The blank line isn't a record but the line numbers still count it.
+		Assert.assertEquals(8L, report.get("received").asLong());
+		Assert.assertEquals(2L, report.get("written").asLong());
+		Assert.assertEquals(6L, report.get("failed").asLong());
+		JsonArray failures = report.get("failures").asArray();
+		Assert.assertEquals(6, failures.size());
+		long[] expectedLines = new long[] {2L, 3L, 4L, 5L, 7L, 8L};
+		for (int i = 0; i < expectedLines.length; ++i) {
+			Assert.assertEquals(expectedLines[i], failures.get(i).asObject().get("line").asLong());
+		}
+		Assert.assertTrue(failures.get(0).asObject().get("error").asString().startsWith("Invalid JSON"));
+		Assert.assertEquals("Unknown field: unknown", failures.get(1).asObject().get("error").asString());
+		Assert.assertEquals("Write was rejected by the topic", failures.get(4).asObject().get("error").asString());
+		Assert.assertTrue(failures.get(5).asObject().get("error").asString().startsWith("Write failed"));
+	}
+
+	@Test
+	public void testInFlightLimit() throws Throwable {
+		// The writer never completes anything until we tell it to.
+		List<CompletableFuture<Boolean>> pending = new ArrayList<>();
+		BulkIngest ingest = new BulkIngest((String field, String key, JsonValue value) -> {
+			CompletableFuture<Boolean> future = new CompletableFuture<>();
+			synchronized (pending) {
+				pending.add(future);
+				pending.notifyAll();
+			}
+			return future;
+		});
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 1100; ++i) {
+			body.append("{\"field\":\"name\",\"key\":\"user" + i + "\",\"value\":\"x\"}\n");
+		}
+		JsonObject[] report = new JsonObject[1];
+		Thread ingestThread = new Thread(() -> {
+			try {
+				report[0] = ingest.run(new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)));
+			} catch (Throwable t) {
+				throw new AssertionError(t);
+			}
+		});
+		ingestThread.start();
+		
+		// Only 1024 writes are sent until one completes.
+		_waitForCount(pending, 1024);
+		Thread.sleep(100L);
+		synchronized (pending) {
+			Assert.assertEquals(1024, pending.size());
+			pending.get(0).complete(true);
+		}
+		_waitForCount(pending, 1025);
+		Thread.sleep(100L);
+		synchronized (pending) {
+			Assert.assertEquals(1025, pending.size());
+		}
+		
+		// Completing everything lets the rest through and the run finishes once they are all done.
+		int completed = 1;
+		while (completed < 1100) {
+			CompletableFuture<Boolean> next;
+			synchronized (pending) {
+				while (pending.size() <= completed) {
+					pending.wait();
+				}
+				next = pending.get(completed);
+			}
+			next.complete(true);
+			completed += 1;
+		}
+		ingestThread.join();
+		Assert.assertEquals(1100L, report[0].get("written").asLong());
+	}
+
+
+	private static void _waitForCount(List<CompletableFuture<Boolean>> pending, int count) throws InterruptedException {
+		synchronized (pending) {
+			while (pending.size() < count) {
+				pending.wait();
+			}
+		}
+	}
+}
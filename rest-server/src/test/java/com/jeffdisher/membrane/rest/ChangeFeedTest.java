@@ -0,0 +1,288 @@
+package com.jeffdisher.membrane.rest;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.jeffdisher.laminar.types.TopicName;
+
+
+public class ChangeFeedTest {
+	private static final TopicName NAME = TopicName.fromString("name");
+	private static final TopicName AGE = TopicName.fromString("age");
+
+	@Test
+	public void testFiltering() throws Throwable {
+		ChangeFeed feed = new ChangeFeed();
+		FakeSession all = _connect(feed, null, null, null, null);
+		FakeSession field = _connect(feed, "name", null, null, null);
+		FakeSession key = _connect(feed, "name", "user1", null, null);
+		FakeSession prefix = _connect(feed, null, null, "user1", null);
+
+		feed.didPut(NAME, "user1", _value("User 1"), 1L);
+		feed.didPut(AGE, "user10", _value(Integer.valueOf(10)), 2L);
+		feed.didDelete(NAME, "user2", 3L);
+		feed.didDestroy(AGE, 4L);
+
+		Assert.assertEquals(Arrays.asList("put name/user1 @1", "put age/user10 @2", "delete name/user2 @3", "destroy age @4"), all.describeSent());
+		Assert.assertEquals(Arrays.asList("put name/user1 @1", "delete name/user2 @3"), field.describeSent());
+		Assert.assertEquals(Arrays.asList("put name/user1 @1"), key.describeSent());
+		// Destroying a field changes every key so it matches any key filter.
+		Assert.assertEquals(Arrays.asList("put name/user1 @1", "put age/user10 @2", "destroy age @4"), prefix.describeSent());
+
+		// The message has everything about the change.
+		JsonObject message = Json.parse(all.sent.get(1)).asObject();
+		Assert.assertEquals("age", message.get("field").asString());
+		Assert.assertEquals("user10", message.get("key").asString());
+		Assert.assertEquals(2L, message.get("offset").asLong());
+		Assert.assertEquals(10, message.get("value").asInt());
+
+		// Unsubscribed sockets see nothing more.
+		all.socket.onWebSocketClose(StatusCode.NORMAL, null);
+		key.socket.onWebSocketClose(StatusCode.NORMAL, null);
+		feed.didPut(NAME, "user1", _value("Other"), 5L);
+		Assert.assertEquals(4, all.sent.size());
+		Assert.assertEquals(1, key.sent.size());
+		Assert.assertEquals(3, field.sent.size());
+	}
+
+	@Test
+	public void testResume() throws Throwable {
+		ChangeFeed feed = new ChangeFeed();
+		feed.didPut(NAME, "user1", _value("User 1"), 1L);
+		feed.didPut(AGE, "user1", _value(Integer.valueOf(1)), 2L);
+		feed.didPut(NAME, "user2", _value("User 2"), 3L);
+
+		// Only the matching changes after the offset are replayed, before any new ones.
+		FakeSession session = _connect(feed, "name", null, null, _after("name", 1L));
+		feed.didDelete(NAME, "user1", 4L);
+		Assert.assertEquals(Arrays.asList("put name/user2 @3", "delete name/user1 @4"), session.describeSent());
+
+		// Resuming from the latest offsets just sees new changes.
+		Map<String, Long> positions = new HashMap<>();
+		positions.put("name", 4L);
+		positions.put("age", 2L);
+		FakeSession latest = _connect(feed, null, null, null, positions);
+		feed.didDelete(NAME, "user2", 5L);
+		Assert.assertEquals(Arrays.asList("delete name/user2 @5"), latest.describeSent());
+
+		// Not resuming at all means no replay.
+		FakeSession fresh = _connect(feed, null, null, null, null);
+		Assert.assertTrue(fresh.sent.isEmpty());
+	}
+
+	@Test
+	public void testResumeFieldsOutOfOrder() throws Throwable {
+		// Each field's listener publishes on its own so a field which is behind can publish a change with a lower offset
+		// than one already published for another field:  resuming from each field's last offset must still see it.
+		ChangeFeed feed = new ChangeFeed();
+		feed.didPut(AGE, "user1", _value(Integer.valueOf(1)), 80L);
+		feed.didPut(NAME, "user1", _value("User 1"), 100L);
+		// The subscriber saw both and disconnected before the age listener caught up.
+		feed.didPut(AGE, "user2", _value(Integer.valueOf(2)), 90L);
+		feed.didPut(NAME, "user2", _value("User 2"), 101L);
+		
+		Map<String, Long> positions = new HashMap<>();
+		positions.put("name", 100L);
+		positions.put("age", 80L);
+		FakeSession resumed = _connect(feed, null, null, null, positions);
+		Assert.assertEquals(Arrays.asList("put age/user2 @90", "put name/user2 @101"), resumed.describeSent());
+		
+		// A field with no offset was never seen so everything we kept of it is replayed.
+		FakeSession partial = _connect(feed, null, null, null, _after("name", 100L));
+		Assert.assertEquals(Arrays.asList("put age/user1 @80", "put age/user2 @90", "put name/user2 @101"), partial.describeSent());
+	}
+
+	@Test
+	public void testGap() throws Throwable {
+		ChangeFeed feed = new ChangeFeed();
+		// Publish more changes than we keep.
+		for (long offset = 1L; offset <= 5000L; ++offset) {
+			feed.didPut(NAME, "user" + offset, _value("User"), offset);
+		}
+
+		// Resuming from before what we kept is told about the gap, and then gets everything we kept.
+		FakeSession old = _connect(feed, null, null, null, _after("name", 100L));
+		Assert.assertEquals(4097, old.sent.size());
+		Assert.assertEquals("gap", Json.parse(old.sent.get(0)).asObject().get("op").asString());
+		Assert.assertEquals(905L, Json.parse(old.sent.get(1)).asObject().get("offset").asLong());
+
+		// Resuming from the start of what we kept has no gap.
+		FakeSession recent = _connect(feed, "name", "user4999", null, _after("name", 904L));
+		Assert.assertEquals(Arrays.asList("put name/user4999 @4999"), recent.describeSent());
+	}
+
+	@Test
+	public void testSlowSubscriberDropped() throws Throwable {
+		ChangeFeed feed = new ChangeFeed();
+		FakeSession fast = _connect(feed, null, null, null, null);
+		FakeSession slow = _connect(feed, null, null, null, null);
+		// The slow subscriber never finishes its first write so everything else queues up.
+		slow.isStalled = true;
+		for (long offset = 1L; offset <= 8193L; ++offset) {
+			feed.didPut(NAME, "user", _value("User"), offset);
+		}
+		Assert.assertEquals(-1, slow.closeStatus);
+		feed.didPut(NAME, "user", _value("User"), 8194L);
+
+		// The slow subscriber is told to reconnect, without affecting the other.
+		Assert.assertEquals(StatusCode.TRY_AGAIN_LATER, slow.closeStatus);
+		Assert.assertEquals(1, slow.sent.size());
+		Assert.assertEquals(8194, fast.sent.size());
+		feed.didPut(NAME, "user", _value("User"), 8195L);
+		Assert.assertEquals(8195, fast.sent.size());
+		Assert.assertEquals(1, slow.sent.size());
+	}
+
+	@Test
+	public void testLazyValues() throws Throwable {
+		ChangeFeed feed = new ChangeFeed();
+		AtomicInteger decodes = new AtomicInteger();
+		Supplier<Object> value = () -> {
+			decodes.incrementAndGet();
+			return "User 1";
+		};
+
+		// Values nobody wants are never decoded.
+		FakeSession other = _connect(feed, "age", null, null, null);
+		feed.didPut(NAME, "user1", value, 1L);
+		Assert.assertEquals(0, decodes.get());
+		Assert.assertTrue(other.sent.isEmpty());
+
+		// Otherwise, the message is built once, no matter how many want it.
+		FakeSession first = _connect(feed, "name", null, null, null);
+		FakeSession second = _connect(feed, null, null, null, null);
+		feed.didPut(NAME, "user1", value, 2L);
+		Assert.assertEquals(1, decodes.get());
+		Assert.assertEquals(first.sent, second.sent);
+		FakeSession resumed = _connect(feed, null, null, null, Collections.emptyMap());
+		Assert.assertEquals(2, decodes.get());
+		Assert.assertEquals(2, resumed.sent.size());
+	}
+
+	@Test
+	public void testResumeWhilePublishing() throws Throwable {
+		// Subscribers resuming while several topics publish see every change exactly once.
+		ChangeFeed feed = new ChangeFeed();
+		int publisherCount = 4;
+		int changesPerPublisher = 1000;
+		Thread[] publishers = new Thread[publisherCount];
+		for (int i = 0; i < publisherCount; ++i) {
+			TopicName topic = TopicName.fromString("topic" + i);
+			long firstOffset = 1L + (i * changesPerPublisher);
+			publishers[i] = new Thread(() -> {
+				for (long offset = firstOffset; offset < (firstOffset + changesPerPublisher); ++offset) {
+					feed.didDelete(topic, "key", offset);
+				}
+			});
+		}
+		for (Thread publisher : publishers) {
+			publisher.start();
+		}
+		List<FakeSession> sessions = new ArrayList<>();
+		for (int i = 0; i < 20; ++i) {
+			sessions.add(_connect(feed, null, null, null, Collections.emptyMap()));
+		}
+		for (Thread publisher : publishers) {
+			publisher.join();
+		}
+		for (FakeSession session : sessions) {
+			Set<Long> offsets = new HashSet<>();
+			for (String message : session.sent) {
+				Assert.assertTrue(offsets.add(Json.parse(message).asObject().get("offset").asLong()));
+			}
+			Assert.assertEquals(publisherCount * changesPerPublisher, offsets.size());
+		}
+	}
+
+
+	private static Supplier<Object> _value(Object value) {
+		return () -> value;
+	}
+
+	private static Map<String, Long> _after(String field, long offset) {
+		return Collections.singletonMap(field, offset);
+	}
+
+	private static FakeSession _connect(ChangeFeed feed, String field, String key, String prefix, Map<String, Long> resumeAfterOffsets) {
+		FeedSocket socket = new FeedSocket(feed, field, key, prefix, resumeAfterOffsets);
+		FakeSession session = new FakeSession(socket);
+		socket.onWebSocketConnect(session.asSession());
+		return session;
+	}
+
+
+	/**
+	 * Stands in for the WebSocket session, recording what is sent and completing each write immediately unless stalled.
+	 */
+	private static class FakeSession {
+		public final FeedSocket socket;
+		public final List<String> sent;
+		public volatile boolean isStalled;
+		public volatile int closeStatus;
+		
+		public FakeSession(FeedSocket socket) {
+			this.socket = socket;
+			this.sent = Collections.synchronizedList(new ArrayList<>());
+			this.isStalled = false;
+			this.closeStatus = -1;
+		}
+		
+		public Session asSession() {
+			RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RemoteEndpoint.class }, (Object proxy, Method method, Object[] args) -> {
+				Assert.assertEquals("sendString", method.getName());
+				this.sent.add((String) args[0]);
+				if (!this.isStalled) {
+					((WriteCallback) args[1]).writeSuccess();
+				}
+				return null;
+			});
+			return (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class }, (Object proxy, Method method, Object[] args) -> {
+				Object result = null;
+				if ("getRemote".equals(method.getName())) {
+					result = remote;
+				} else if ("close".equals(method.getName()) && (2 == args.length)) {
+					this.closeStatus = (Integer) args[0];
+				} else if ("isOpen".equals(method.getName())) {
+					result = (-1 == this.closeStatus);
+				} else {
+					Assert.fail("Unexpected call: " + method.getName());
+				}
+				return result;
+			});
+		}
+		
+		public List<String> describeSent() {
+			List<String> descriptions = new ArrayList<>();
+			synchronized (this.sent) {
+				for (String message : this.sent) {
+					JsonObject object = Json.parse(message).asObject();
+					String key = (null != object.get("key"))
+							? ("/" + object.get("key").asString())
+							: ""
+					;
+					descriptions.add(object.get("op").asString() + " " + object.get("field").asString() + key + " @" + object.get("offset").asLong());
+				}
+			}
+			return descriptions;
+		}
+	}
+}
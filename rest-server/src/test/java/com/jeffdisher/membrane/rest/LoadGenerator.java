@@ -0,0 +1,464 @@
+package com.jeffdisher.membrane.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.WriterConfig;
+import com.jeffdisher.breakwater.StringMultiMap;
+import com.jeffdisher.breakwater.utilities.RestHelpers;
+
+
+/**
+ * A load generator for MembraneRest, which starts a "--local_only" server in this process and drives a mix of requests
+ * at it, reporting the throughput and latency percentiles of each endpoint as JSON.
+ * The fields are created (and timed) first and every key is then written to every field, so reads find values.  After
+ * that, requests are sent on a fixed schedule, whether or not earlier ones have completed, and latency is measured from
+ * when each request was scheduled, so a stalled server shows up in the latencies instead of just slowing the load.
+ *
+ * For example, from the rest-server test classpath:
+ *   LoadGenerator --rate 2000 --duration_seconds 30 --distribution zipfian --output report.json
+ */
+public class LoadGenerator {
+	private static final String MEMBRANE_URL = "http://localhost:8080/";
+	// Requests which would go beyond this many outstanding are dropped (and counted), instead of queued, so the schedule
+	// never waits on the server.
+	private static final int MAX_OUTSTANDING = 8192;
+	private static final int PRELOAD_CONCURRENCY = 256;
+	private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30L);
+
+	public static void main(String[] args) throws Exception {
+		Config config = Config.parse(args);
+		String report = run(config).toString(WriterConfig.PRETTY_PRINT);
+		if (null != config.outputPath) {
+			Files.write(Paths.get(config.outputPath), report.getBytes(StandardCharsets.UTF_8));
+		} else {
+			System.out.println(report);
+		}
+	}
+
+	/**
+	 * Starts the server, runs the load described by the config against it, and stops it.
+	 *
+	 * @return The report (the config, the number of dropped requests, and the statistics of each endpoint).
+	 */
+	public static JsonObject run(Config config) throws Exception {
+		CountDownLatch bindLatch = new CountDownLatch(1);
+		Thread server = new Thread(() -> {
+			MembraneRest.mainInTest(bindLatch, new String[] {"--local_only"});
+		});
+		server.start();
+		bindLatch.await();
+
+		HttpClient client = new HttpClient();
+		client.setMaxConnectionsPerDestination(config.connections);
+		client.setMaxRequestsQueuedPerDestination(MAX_OUTSTANDING);
+		client.start();
+		Map<String, Endpoint> endpoints = new TreeMap<>();
+		Endpoint create = new Endpoint("create_field", 200);
+		Endpoint put = new Endpoint("put", 200);
+		// Reads of keys which were never written are still valid responses.
+		Endpoint get = new Endpoint("get", 200, 404);
+		Endpoint json = new Endpoint("json", 200);
+		for (Endpoint endpoint : Arrays.asList(create, put, get, json)) {
+			endpoints.put(endpoint.name, endpoint);
+		}
+		Random random = new Random(config.seed);
+		byte[] value = new byte[config.valueBytes];
+		for (int i = 0; i < value.length; ++i) {
+			value[i] = (byte)('a' + random.nextInt(26));
+		}
+		int dropped = 0;
+		long elapsedNanos;
+		try {
+			List<String> fields = new ArrayList<>();
+			for (int i = 0; i < config.fieldCount; ++i) {
+				String field = "field" + i;
+				StringMultiMap<byte[]> parts = new StringMultiMap<>();
+				parts.append("type", "String".getBytes(StandardCharsets.UTF_8));
+				parts.append("code", new byte[0]);
+				parts.append("arguments", new byte[0]);
+				long startNanos = System.nanoTime();
+				byte[] response = RestHelpers.postParts(MEMBRANE_URL + field, parts);
+				create.record(System.nanoTime() - startNanos, Arrays.equals((field + "\n").getBytes(StandardCharsets.UTF_8), response));
+				fields.add(field);
+			}
+
+			// Preloading isn't part of the report so we just bound how much of it is outstanding.
+			Semaphore preloadPermits = new Semaphore(PRELOAD_CONCURRENCY);
+			for (int key = 0; key < config.keyCount; ++key) {
+				for (String field : fields) {
+					preloadPermits.acquire();
+					client.newRequest(MEMBRANE_URL + field + "/key" + key)
+							.method(HttpMethod.PUT)
+							.content(new BytesContentProvider(value))
+							.send((Result result) -> preloadPermits.release())
+					;
+				}
+			}
+			preloadPermits.acquire(PRELOAD_CONCURRENCY);
+
+			// Run the open-loop phase.
+			KeyChooser keys = "zipfian".equals(config.distribution)
+					? new ZipfianKeys(config.keyCount, config.zipfianTheta)
+					: (Random source) -> source.nextInt(config.keyCount)
+			;
+			int totalWeight = config.putWeight + config.getWeight + config.jsonWeight;
+			AtomicInteger outstanding = new AtomicInteger(0);
+			double intervalNanos = 1_000_000_000.0 / config.rate;
+			long startNanos = System.nanoTime();
+			long endNanos = startNanos + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+			long scheduledCount = 0L;
+			long scheduledNanos = startNanos;
+			while (scheduledNanos < endNanos) {
+				long waitNanos = scheduledNanos - System.nanoTime();
+				if (waitNanos > 0L) {
+					LockSupport.parkNanos(waitNanos);
+				}
+				if (outstanding.get() < MAX_OUTSTANDING) {
+					String key = "key" + keys.next(random);
+					String field = fields.get(random.nextInt(fields.size()));
+					int choice = random.nextInt(totalWeight);
+					if (choice < config.putWeight) {
+						_send(client, put, HttpMethod.PUT, MEMBRANE_URL + field + "/" + key, value, scheduledNanos, outstanding);
+					} else if (choice < (config.putWeight + config.getWeight)) {
+						_send(client, get, HttpMethod.GET, MEMBRANE_URL + field + "/" + key, null, scheduledNanos, outstanding);
+					} else {
+						_send(client, json, HttpMethod.GET, MEMBRANE_URL + "json/" + key, null, scheduledNanos, outstanding);
+					}
+				} else {
+					dropped += 1;
+				}
+				scheduledCount += 1L;
+				scheduledNanos = startNanos + (long)(scheduledCount * intervalNanos);
+			}
+			// Let the requests still in flight finish so they are counted (if any never do, the report is still written).
+			long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+			while ((outstanding.get() > 0) && (System.nanoTime() < drainDeadline)) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10L));
+			}
+			elapsedNanos = System.nanoTime() - startNanos;
+		} finally {
+			client.stop();
+			RestHelpers.delete(MEMBRANE_URL + "exit");
+			server.join();
+		}
+
+		JsonObject report = new JsonObject();
+		report.add("config", config.toJson());
+		report.add("elapsedSeconds", (double)elapsedNanos / 1_000_000_000.0);
+		report.add("dropped", dropped);
+		JsonObject results = new JsonObject();
+		for (Endpoint endpoint : endpoints.values()) {
+			// Field creation happens before the timed phase so its throughput is meaningless and is left out.
+			long throughputNanos = (create == endpoint) ? 0L : elapsedNanos;
+			results.add(endpoint.name, endpoint.toJson(throughputNanos));
+		}
+		report.add("endpoints", results);
+		return report;
+	}
+
+
+	private static void _send(HttpClient client, Endpoint endpoint, HttpMethod method, String uri, byte[] body, long scheduledNanos, AtomicInteger outstanding) {
+		outstanding.incrementAndGet();
+		Request request = client.newRequest(uri).method(method);
+		if (null != body) {
+			request.content(new BytesContentProvider(body));
+		}
+		request.send((Result result) -> {
+			long latencyNanos = System.nanoTime() - scheduledNanos;
+			boolean isSuccess = !result.isFailed() && endpoint.isExpectedStatus(result.getResponse().getStatus());
+			endpoint.record(latencyNanos, isSuccess);
+			outstanding.decrementAndGet();
+		});
+	}
+
+
+	/**
+	 * The load to generate.  A new instance holds the defaults.
+	 */
+	public static class Config {
+		/**
+		 * Requests per second, across all endpoints.
+		 */
+		public int rate;
+		public int durationSeconds;
+		public int keyCount;
+		public int fieldCount;
+		public int valueBytes;
+		public int connections;
+		public long seed;
+		/**
+		 * "uniform" or "zipfian" (where key0 is the most popular).
+		 */
+		public String distribution;
+		/**
+		 * The skew of the zipfian distribution, in (0, 1):  higher values concentrate more requests on fewer keys.
+		 */
+		public double zipfianTheta;
+		public int putWeight;
+		public int getWeight;
+		public int jsonWeight;
+		/**
+		 * Where to write the report, or null to write it to stdout.
+		 */
+		public String outputPath;
+
+		public Config() {
+			this.rate = 1000;
+			this.durationSeconds = 10;
+			this.keyCount = 10_000;
+			this.fieldCount = 4;
+			this.valueBytes = 64;
+			this.connections = 64;
+			this.seed = 1L;
+			this.distribution = "zipfian";
+			this.zipfianTheta = 0.99;
+			this.putWeight = 20;
+			this.getWeight = 50;
+			this.jsonWeight = 30;
+			this.outputPath = null;
+		}
+
+		public static Config parse(String[] args) {
+			Config config = new Config();
+			config.rate = _getInt(args, "rate", config.rate);
+			config.durationSeconds = _getInt(args, "duration_seconds", config.durationSeconds);
+			config.keyCount = _getInt(args, "keys", config.keyCount);
+			config.fieldCount = _getInt(args, "fields", config.fieldCount);
+			config.valueBytes = _getInt(args, "value_bytes", config.valueBytes);
+			config.connections = _getInt(args, "connections", config.connections);
+			String seed = _getArgument(args, "seed");
+			if (null != seed) {
+				config.seed = Long.parseLong(seed);
+			}
+			String distribution = _getArgument(args, "distribution");
+			if (null != distribution) {
+				config.distribution = distribution;
+			}
+			String theta = _getArgument(args, "zipfian_theta");
+			if (null != theta) {
+				config.zipfianTheta = Double.parseDouble(theta);
+			}
+			String mix = _getArgument(args, "mix");
+			if (null != mix) {
+				// For example:  "put=20,get=50,json=30".
+				config.putWeight = 0;
+				config.getWeight = 0;
+				config.jsonWeight = 0;
+				for (String part : mix.split(",")) {
+					String[] pair = part.split("=");
+					if (2 != pair.length) {
+						throw new IllegalArgumentException("Invalid mix: \"" + mix + "\"");
+					}
+					int weight = Integer.parseInt(pair[1].trim());
+					switch (pair[0].trim()) {
+					case "put":
+						config.putWeight = weight;
+						break;
+					case "get":
+						config.getWeight = weight;
+						break;
+					case "json":
+						config.jsonWeight = weight;
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown endpoint in mix: \"" + pair[0] + "\"");
+					}
+				}
+			}
+			config.outputPath = _getArgument(args, "output");
+			config.validate();
+			return config;
+		}
+
+		public void validate() {
+			if ((this.rate < 1) || (this.durationSeconds < 1) || (this.keyCount < 1) || (this.fieldCount < 1) || (this.valueBytes < 0) || (this.connections < 1)) {
+				throw new IllegalArgumentException("Rate, duration, keys, fields, and connections must be positive (and value size not negative)");
+			}
+			if (!"uniform".equals(this.distribution) && !"zipfian".equals(this.distribution)) {
+				throw new IllegalArgumentException("Distribution must be \"uniform\" or \"zipfian\"");
+			}
+			if ((this.zipfianTheta <= 0.0) || (this.zipfianTheta >= 1.0)) {
+				throw new IllegalArgumentException("Zipfian theta must be between 0 and 1 (exclusive)");
+			}
+			if ((this.putWeight < 0) || (this.getWeight < 0) || (this.jsonWeight < 0) || (0 == (this.putWeight + this.getWeight + this.jsonWeight))) {
+				throw new IllegalArgumentException("Mix weights cannot be negative and at least one must be positive");
+			}
+		}
+
+		public JsonObject toJson() {
+			JsonObject json = new JsonObject();
+			json.add("rate", this.rate);
+			json.add("durationSeconds", this.durationSeconds);
+			json.add("keys", this.keyCount);
+			json.add("fields", this.fieldCount);
+			json.add("valueBytes", this.valueBytes);
+			json.add("connections", this.connections);
+			json.add("seed", this.seed);
+			json.add("distribution", this.distribution);
+			json.add("zipfianTheta", this.zipfianTheta);
+			JsonObject mix = new JsonObject();
+			mix.add("put", this.putWeight);
+			mix.add("get", this.getWeight);
+			mix.add("json", this.jsonWeight);
+			json.add("mix", mix);
+			return json;
+		}
+
+		private static String _getArgument(String[] args, String flag) {
+			String check = "--" + flag;
+			String match = null;
+			for (int i = 0; (null == match) && (i < (args.length - 1)); ++i) {
+				if (check.equals(args[i])) {
+					match = args[i+1];
+				}
+			}
+			return match;
+		}
+
+		private static int _getInt(String[] args, String flag, int defaultValue) {
+			String string = _getArgument(args, flag);
+			return (null != string)
+					? Integer.parseInt(string)
+					: defaultValue
+			;
+		}
+	}
+
+
+	/**
+	 * Collects every latency for an endpoint so the percentiles are exact (a run is short enough to keep them all).
+	 */
+	private static class Endpoint {
+		public final String name;
+		private final int[] _expectedStatuses;
+		private long[] _latencies;
+		private int _count;
+		private long _errors;
+
+		public Endpoint(String name, int... expectedStatuses) {
+			this.name = name;
+			_expectedStatuses = expectedStatuses;
+			_latencies = new long[1024];
+			_count = 0;
+			_errors = 0L;
+		}
+
+		public boolean isExpectedStatus(int status) {
+			boolean isExpected = false;
+			for (int expected : _expectedStatuses) {
+				isExpected |= (expected == status);
+			}
+			return isExpected;
+		}
+
+		public synchronized void record(long latencyNanos, boolean isSuccess) {
+			if (_count == _latencies.length) {
+				_latencies = Arrays.copyOf(_latencies, 2 * _latencies.length);
+			}
+			_latencies[_count] = latencyNanos;
+			_count += 1;
+			if (!isSuccess) {
+				_errors += 1L;
+			}
+		}
+
+		/**
+		 * @param elapsedNanos The time the requests were sent over, or 0 to leave out the throughput.
+		 */
+		public synchronized JsonObject toJson(long elapsedNanos) {
+			long[] sorted = Arrays.copyOf(_latencies, _count);
+			Arrays.sort(sorted);
+			JsonObject json = new JsonObject();
+			json.add("requests", _count);
+			json.add("errors", _errors);
+			if (elapsedNanos > 0L) {
+				json.add("throughputPerSecond", (double)_count * 1_000_000_000.0 / (double)elapsedNanos);
+			}
+			json.add("p50Millis", _percentileMillis(sorted, 0.50));
+			json.add("p99Millis", _percentileMillis(sorted, 0.99));
+			json.add("p999Millis", _percentileMillis(sorted, 0.999));
+			json.add("maxMillis", _percentileMillis(sorted, 1.0));
+			return json;
+		}
+
+		private static double _percentileMillis(long[] sorted, double percentile) {
+			double millis = 0.0;
+			if (sorted.length > 0) {
+				// Nearest-rank:  the smallest latency which at least this fraction of requests didn't exceed.
+				int index = Math.max(0, (int)Math.ceil(percentile * sorted.length) - 1);
+				millis = (double)sorted[index] / 1_000_000.0;
+			}
+			return millis;
+		}
+	}
+
+
+	private static interface KeyChooser {
+		int next(Random random);
+	}
+
+
+	/**
+	 * Chooses keys in [0, count) with a zipfian distribution (key 0 being the most popular), using the method from "Quickly
+	 * Generating Billion-Record Synthetic Databases" (Gray et al), as YCSB does.
+	 */
+	private static class ZipfianKeys implements KeyChooser {
+		private final int _count;
+		private final double _theta;
+		private final double _zetaN;
+		private final double _alpha;
+		private final double _eta;
+
+		public ZipfianKeys(int count, double theta) {
+			_count = count;
+			_theta = theta;
+			_zetaN = _zeta(count, theta);
+			_alpha = 1.0 / (1.0 - theta);
+			_eta = (1.0 - Math.pow(2.0 / count, 1.0 - theta)) / (1.0 - (_zeta(2, theta) / _zetaN));
+		}
+
+		@Override
+		public int next(Random random) {
+			double u = random.nextDouble();
+			double uz = u * _zetaN;
+			int key;
+			if (uz < 1.0) {
+				key = 0;
+			} else if (uz < (1.0 + Math.pow(0.5, _theta))) {
+				key = 1;
+			} else {
+				key = (int)(_count * Math.pow((_eta * u) - _eta + 1.0, _alpha));
+			}
+			// Rounding can push us past the end (and a single key has no key 1).
+			return Math.min(key, _count - 1);
+		}
+
+		private static double _zeta(int count, double theta) {
+			double sum = 0.0;
+			for (int i = 1; i <= count; ++i) {
+				sum += 1.0 / Math.pow(i, theta);
+			}
+			return sum;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.jeffdisher.membrane.rest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eclipsesource.json.JsonObject;
+
+
+public class LoadGeneratorTest {
+	/**
+	 * Runs a short, light load to check every endpoint is exercised without errors and reported.
+	 */
+	@Test
+	public void testShortRun() throws Throwable {
+		LoadGenerator.Config config = new LoadGenerator.Config();
+		config.rate = 200;
+		config.durationSeconds = 1;
+		config.keyCount = 100;
+		config.fieldCount = 2;
+		config.connections = 4;
+		JsonObject report = LoadGenerator.run(config);
+		Assert.assertEquals(0, report.get("dropped").asInt());
+		JsonObject endpoints = report.get("endpoints").asObject();
+		for (String name : new String[] {"create_field", "put", "get", "json"}) {
+			JsonObject endpoint = endpoints.get(name).asObject();
+			Assert.assertTrue(endpoint.get("requests").asLong() > 0L);
+			Assert.assertEquals(0L, endpoint.get("errors").asLong());
+			Assert.assertTrue(endpoint.get("p50Millis").asDouble() <= endpoint.get("p999Millis").asDouble());
+		}
+		Assert.assertEquals(2L, endpoints.get("create_field").asObject().get("requests").asLong());
+	}
+}
@@ -1,19 +1,28 @@
 package com.jeffdisher.membrane.rest;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Rule;
@@ -33,6 +42,7 @@ import com.jeffdisher.membrane.avm.CounterProgram;
 public class MembraneRestTest {
 	private static final String WRAPPER_SERVER_JAR = System.getenv("WRAPPER_SERVER_JAR");
 	private static final String MEMBRANE_URL = "http://localhost:8080/";
+	private static final String FEED_URL = "ws://localhost:8081/feed";
 
 	@Rule
 	public TemporaryFolder _folder = new TemporaryFolder();
@@ -124,6 +134,200 @@ public class MembraneRestTest {
 		wrapper.stop();
 	}
 
+	@Test
+	public void testOversizedValue() throws Throwable {
+		MembraneWrapper membrane = MembraneWrapper.localWrapper();
+		Assert.assertArrayEquals("topic1\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "topic1", _createPostMap("String", new byte[0], new byte[0], false)));
+		
+		// A value over the limit is rejected, whether or not its length is known up-front, and nothing is stored.
+		byte[] tooBig = new byte[32 * 1024 + 1];
+		Assert.assertEquals(413, _send("PUT", MEMBRANE_URL + "topic1/key1", tooBig, false).status);
+		Assert.assertEquals(413, _send("PUT", MEMBRANE_URL + "topic1/key1", tooBig, true).status);
+		Assert.assertEquals(404, _send("GET", MEMBRANE_URL + "topic1/key1", null, false).status);
+		
+		// A value right at the limit is still accepted.
+		byte[] largest = new byte[32 * 1024];
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "topic1/key1", largest, true).status);
+		Assert.assertEquals(200, _send("GET", MEMBRANE_URL + "topic1/key1", null, false).status);
+		
+		membrane.stop();
+	}
+
+	@Test
+	public void testBatchRead() throws Throwable {
+		MembraneWrapper membrane = MembraneWrapper.localWrapper();
+		Assert.assertArrayEquals("name\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "name", _createPostMap("String", new byte[0], new byte[0], false)));
+		Assert.assertArrayEquals("employee_number\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "employee_number", _createPostMap("integer", new byte[0], new byte[0], false)));
+		Assert.assertArrayEquals("Received 6 bytes\n".getBytes(), RestHelpers.put(MEMBRANE_URL + "name/key1", "User 1".getBytes(StandardCharsets.UTF_8)));
+		Assert.assertArrayEquals("Received 6 bytes\n".getBytes(), RestHelpers.put(MEMBRANE_URL + "name/key2", "User 2".getBytes(StandardCharsets.UTF_8)));
+		Assert.assertArrayEquals("Received 4 bytes\n".getBytes(), RestHelpers.put(MEMBRANE_URL + "employee_number/key1", new byte[] {0,0,0,1}));
+		byte[] keys = "[\"key1\",\"key2\",\"missing\"]".getBytes(StandardCharsets.UTF_8);
+		
+		// Every key gets a document, even if it is empty.
+		Response response = _send("POST", MEMBRANE_URL + "batch/json", keys, false, "Content-Type", "application/json");
+		Assert.assertEquals(200, response.status);
+		JsonObject documents = Json.parse(new String(response.body, StandardCharsets.UTF_8)).asObject();
+		Assert.assertEquals(3, documents.size());
+		JsonObject key1 = documents.get("key1").asObject();
+		Assert.assertEquals("User 1", key1.get("name").asString());
+		Assert.assertEquals(1, key1.get("employee_number").asInt());
+		JsonObject key2 = documents.get("key2").asObject();
+		Assert.assertEquals(1, key2.size());
+		Assert.assertEquals("User 2", key2.get("name").asString());
+		Assert.assertTrue(documents.get("missing").asObject().isEmpty());
+		
+		// A single field only has the keys with values.
+		response = _send("POST", MEMBRANE_URL + "batch/employee_number", keys, false, "Content-Type", "application/json");
+		Assert.assertEquals(200, response.status);
+		JsonObject numbers = Json.parse(new String(response.body, StandardCharsets.UTF_8)).asObject();
+		Assert.assertEquals(1, numbers.size());
+		Assert.assertEquals(1, numbers.get("key1").asInt());
+		
+		// Unknown fields and malformed key lists are errors.
+		Assert.assertEquals(404, _send("POST", MEMBRANE_URL + "batch/unknown", keys, false, "Content-Type", "application/json").status);
+		Assert.assertEquals(400, _send("POST", MEMBRANE_URL + "batch/json", "{}".getBytes(StandardCharsets.UTF_8), false, "Content-Type", "application/json").status);
+		
+		membrane.stop();
+	}
+
+	@Test
+	public void testBulkIngestRoute() throws Throwable {
+		MembraneWrapper membrane = MembraneWrapper.localWrapper();
+		Assert.assertArrayEquals("name\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "name", _createPostMap("String", new byte[0], new byte[0], false)));
+		Assert.assertArrayEquals("employee_number\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "employee_number", _createPostMap("integer", new byte[0], new byte[0], false)));
+		String records = "{\"field\":\"name\",\"key\":\"user1\",\"value\":\"User 1\"}\n"
+				+ "{\"field\":\"employee_number\",\"key\":\"user1\",\"value\":7}\n"
+				+ "{\"field\":\"unknown\",\"key\":\"user1\",\"value\":\"x\"}\n"
+				+ "{\"field\":\"employee_number\",\"key\":\"user2\",\"value\":\"not a number\"}\n"
+		;
+		Response response = _send("PUT", MEMBRANE_URL + "ingest", records.getBytes(StandardCharsets.UTF_8), true);
+		Assert.assertEquals(200, response.status);
+		JsonObject report = Json.parse(new String(response.body, StandardCharsets.UTF_8)).asObject();
+		Assert.assertEquals(4L, report.get("received").asLong());
+		Assert.assertEquals(2L, report.get("written").asLong());
+		Assert.assertEquals(3L, report.get("failures").asArray().get(0).asObject().get("line").asLong());
+		Assert.assertEquals(4L, report.get("failures").asArray().get(1).asObject().get("line").asLong());
+		
+		JsonObject document = Json.parse(new String(RestHelpers.get(MEMBRANE_URL + "json/user1"), StandardCharsets.UTF_8)).asObject();
+		Assert.assertEquals("User 1", document.get("name").asString());
+		Assert.assertEquals(7, document.get("employee_number").asInt());
+		Assert.assertEquals(404, _send("GET", MEMBRANE_URL + "employee_number/user2", null, false).status);
+		
+		membrane.stop();
+	}
+
+	@Test
+	public void testChangeFeed() throws Throwable {
+		MembraneWrapper membrane = MembraneWrapper.localWrapper("--feed_port", "8081");
+		Assert.assertArrayEquals("name\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "name", _createPostMap("String", new byte[0], new byte[0], false)));
+		Assert.assertArrayEquals("employee_number\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "employee_number", _createPostMap("integer", new byte[0], new byte[0], false)));
+		WebSocketClient client = new WebSocketClient();
+		client.start();
+		
+		// Subscribers only see the changes matching their filters.
+		FeedClient all = _openFeed(client, "");
+		FeedClient user1 = _openFeed(client, "?field=name&key=user1");
+		FeedClient prefix = _openFeed(client, "?prefix=user2");
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "name/user1", "User 1".getBytes(StandardCharsets.UTF_8), false).status);
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "name/user2", "User 2".getBytes(StandardCharsets.UTF_8), false).status);
+		String records = "{\"field\":\"employee_number\",\"key\":\"user1\",\"value\":1}\n"
+				+ "{\"field\":\"employee_number\",\"key\":\"user2\",\"value\":2}\n"
+		;
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "ingest", records.getBytes(StandardCharsets.UTF_8), false).status);
+		JsonObject first = all.next();
+		Assert.assertEquals("put", first.get("op").asString());
+		Assert.assertEquals("name", first.get("field").asString());
+		Assert.assertEquals("user1", first.get("key").asString());
+		Assert.assertEquals("User 1", first.get("value").asString());
+		long firstOffset = first.get("offset").asLong();
+		Assert.assertEquals("name/user2", all.nextDescription());
+		Assert.assertEquals("employee_number/user1", all.nextDescription());
+		Assert.assertEquals("employee_number/user2", all.nextDescription());
+		Assert.assertEquals("name/user1", user1.nextDescription());
+		Assert.assertEquals("name/user2", prefix.nextDescription());
+		JsonObject number = prefix.next();
+		Assert.assertEquals("employee_number/user2", number.get("field").asString() + "/" + number.get("key").asString());
+		Assert.assertEquals(2, number.get("value").asInt());
+		Assert.assertTrue(user1.messages.isEmpty());
+		
+		// Resuming replays the changes after the offset given.
+		FeedClient resumed = _openFeed(client, "?field=name&after=" + firstOffset);
+		Assert.assertEquals("name/user2", resumed.nextDescription());
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "name/user3", "User 3".getBytes(StandardCharsets.UTF_8), false).status);
+		Assert.assertEquals("name/user3", resumed.nextDescription());
+		
+		// Resuming from before the changes the feed keeps starts with a gap.
+		StringBuilder many = new StringBuilder();
+		for (int i = 0; i < 5000; ++i) {
+			many.append("{\"field\":\"employee_number\",\"key\":\"user1\",\"value\":" + i + "}\n");
+		}
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "ingest", many.toString().getBytes(StandardCharsets.UTF_8), true).status);
+		FeedClient gap = _openFeed(client, "?key=user2&after=name:" + firstOffset + ",employee_number:" + firstOffset);
+		Assert.assertEquals("gap", gap.next().get("op").asString());
+		
+		// A bad offset is rejected, as is a single offset for all fields.
+		try {
+			_openFeed(client, "?after=name:-5");
+			Assert.fail();
+		} catch (ExecutionException e) {
+			// Expected.
+		}
+		try {
+			_openFeed(client, "?after=" + firstOffset);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			// Expected.
+		}
+		
+		client.stop();
+		membrane.stop();
+	}
+
+
+	@Test
+	public void testVersionsSurviveRestart() throws Throwable {
+		String snapshotDirectory = _folder.newFolder().getAbsolutePath();
+		MembraneWrapper membrane = MembraneWrapper.localWrapper("--snapshot_dir", snapshotDirectory);
+		Assert.assertArrayEquals("name\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "name", _createPostMap("String", new byte[0], new byte[0], false)));
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "name/user1", "User 1".getBytes(StandardCharsets.UTF_8), false).status);
+		String oldEtag = _send("GET", MEMBRANE_URL + "name/user1", null, false).etag;
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "name/user1", "User 1 renamed".getBytes(StandardCharsets.UTF_8), false).status);
+		String etag = _send("GET", MEMBRANE_URL + "name/user1", null, false).etag;
+		Assert.assertNotEquals(oldEtag, etag);
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "name/user2", "User 2".getBytes(StandardCharsets.UTF_8), false).status);
+		membrane.stop();
+		
+		// After restarting from the snapshot, each value keeps the version of the change which set it.
+		membrane = MembraneWrapper.localWrapper("--snapshot_dir", snapshotDirectory);
+		Assert.assertArrayEquals("name\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "name", _createPostMap("String", new byte[0], new byte[0], true)));
+		Response stale = _send("GET", MEMBRANE_URL + "name/user1", null, false, "If-None-Match", oldEtag);
+		Assert.assertEquals(200, stale.status);
+		Assert.assertEquals("User 1 renamed", new String(stale.body, StandardCharsets.UTF_8).trim());
+		Assert.assertEquals(etag, stale.etag);
+		Assert.assertEquals(304, _send("GET", MEMBRANE_URL + "name/user1", null, false, "If-None-Match", etag).status);
+		membrane.stop();
+	}
+
+
+	@Test
+	public void testShortOptions() throws Throwable {
+		// "-s" is only the snapshot directory:  it doesn't also turn on the shared key dictionary.
+		File snapshotDirectory = _folder.newFolder();
+		MembraneWrapper membrane = MembraneWrapper.localWrapper("-s", snapshotDirectory.getAbsolutePath());
+		Assert.assertArrayEquals("name\n".getBytes(), RestHelpers.postParts(MEMBRANE_URL + "name", _createPostMap("String", new byte[0], new byte[0], false)));
+		Assert.assertEquals(200, _send("PUT", MEMBRANE_URL + "name/user1", "User 1".getBytes(StandardCharsets.UTF_8), false).status);
+		String metrics = new String(_send("GET", MEMBRANE_URL + "metrics", null, false).body, StandardCharsets.UTF_8);
+		Assert.assertFalse(metrics.contains("membrane_shared_keys"));
+		membrane.stop();
+		Assert.assertTrue(new File(snapshotDirectory, "name.snapshot").isFile());
+		
+		// The shared key dictionary only has its long form.
+		membrane = MembraneWrapper.localWrapper("--shared_keys");
+		metrics = new String(_send("GET", MEMBRANE_URL + "metrics", null, false).body, StandardCharsets.UTF_8);
+		Assert.assertTrue(metrics.contains("membrane_shared_keys"));
+		membrane.stop();
+	}
+
 
 	private void _testDotSh() throws Throwable {
 		// Create the topics.
@@ -240,11 +444,94 @@ public class MembraneRestTest {
 		return map;
 	}
 
+	private static FeedClient _openFeed(WebSocketClient client, String query) throws Throwable {
+		FeedClient feed = new FeedClient();
+		client.connect(feed, new URI(FEED_URL + query)).get(10L, TimeUnit.SECONDS);
+		return feed;
+	}
+
+	private static Response _send(String method, String url, byte[] body, boolean chunked, String... headers) throws IOException {
+		// The headers are name-value pairs.
+		HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		for (int i = 0; i < headers.length; i += 2) {
+			connection.setRequestProperty(headers[i], headers[i + 1]);
+		}
+		if (null != body) {
+			connection.setDoOutput(true);
+			if (chunked) {
+				connection.setChunkedStreamingMode(4096);
+			} else {
+				connection.setFixedLengthStreamingMode(body.length);
+			}
+			try (OutputStream output = connection.getOutputStream()) {
+				output.write(body);
+			} catch (IOException e) {
+				// The server can reject the request before reading all of the body so we still check the response.
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream input = (status < 400)
+				? connection.getInputStream()
+				: connection.getErrorStream()
+		;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (null != input) {
+			int oneByte = input.read();
+			while (-1 != oneByte) {
+				bytes.write(oneByte);
+				oneByte = input.read();
+			}
+			input.close();
+		}
+		Response response = new Response(status, connection.getHeaderField("ETag"), bytes.toByteArray());
+		connection.disconnect();
+		return response;
+	}
+
+
+	private static class Response {
+		public final int status;
+		public final String etag;
+		public final byte[] body;
+		
+		public Response(int status, String etag, byte[] body) {
+			this.status = status;
+			this.etag = etag;
+			this.body = body;
+		}
+	}
+
+
+	private static class FeedClient extends WebSocketAdapter {
+		public final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+		
+		@Override
+		public void onWebSocketText(String message) {
+			this.messages.add(message);
+		}
+		
+		public JsonObject next() throws InterruptedException {
+			String message = this.messages.poll(10L, TimeUnit.SECONDS);
+			Assert.assertNotNull(message);
+			return Json.parse(message).asObject();
+		}
+		
+		public String nextDescription() throws InterruptedException {
+			JsonObject message = next();
+			return message.get("field").asString() + "/" + message.get("key").asString();
+		}
+	}
+
+
 	private static class MembraneWrapper {
-		public static MembraneWrapper localWrapper() throws InterruptedException {
+		public static MembraneWrapper localWrapper(String... extraArgs) throws InterruptedException {
+			String[] args = new String[extraArgs.length + 1];
+			args[0] = "--local_only";
+			System.arraycopy(extraArgs, 0, args, 1, extraArgs.length);
 			CountDownLatch latch = new CountDownLatch(1);
 			Thread runner = new Thread(() -> {
-				MembraneRest.mainInTest(latch, new String[] {"--local_only"});
+				MembraneRest.mainInTest(latch, args);
 			});
 			runner.start();
 			latch.await();